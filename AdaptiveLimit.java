@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Concurrency limit that tunes itself from observed latency (TCP Vegas style). The fastest
+// recent response time stands in for "no queueing"; the gap between it and each sample
+// estimates how many requests are waiting. While that queue is short the limit grows,
+// once it builds up the limit shrinks, so in-flight capacity follows whatever the
+// handlers and the database can currently sustain without hand-tuned pool sizes.
+class AdaptiveLimit {
+    private static final int MIN_LIMIT = 1;
+    // minRtt is re-learned every window so a lasting slowdown (bigger fleet, new
+    // schema) becomes the new baseline instead of being treated as queueing forever
+    private static final int RTT_WINDOW = 1000;
+    // In-memory handlers answer in microseconds, where scheduler jitter alone would read
+    // as queueing; differences below this floor are not a congestion signal
+    private static final long RTT_FLOOR_NANOS = 1_000_000;
+
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private double estimatedLimit;
+    private long minRtt;
+    private double smoothedRtt;
+    private long windowMinRtt = Long.MAX_VALUE;
+    private int windowSamples;
+
+    public AdaptiveLimit(int initialLimit, int maxLimit) {
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    // Takes a slot if the request fits under the current limit
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    // Takes a slot regardless of the limit, for work that must never be shed
+    public void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    // Releases a slot and feeds the request's round-trip time into the estimate
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        update(rttNanos, current, false);
+    }
+
+    // Releases a slot for a request that timed out or failed; backs the limit off
+    public void releaseDropped() {
+        int current = inFlight.getAndDecrement();
+        update(0, current, true);
+    }
+
+    private synchronized void update(long rttNanos, int inFlightAtCompletion, boolean dropped) {
+        if (dropped) {
+            setLimit(estimatedLimit * 0.9);
+            return;
+        }
+        if (rttNanos <= 0) return;
+        rttNanos = Math.max(rttNanos, RTT_FLOOR_NANOS);
+        smoothedRtt = smoothedRtt == 0 ? rttNanos : smoothedRtt * 0.9 + rttNanos * 0.1;
+
+        windowMinRtt = Math.min(windowMinRtt, rttNanos);
+        if (minRtt == 0 || rttNanos < minRtt) minRtt = rttNanos;
+        if (++windowSamples >= RTT_WINDOW) {
+            minRtt = windowMinRtt;
+            windowMinRtt = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+
+        double log = Math.max(1, Math.log10(estimatedLimit));
+        double alpha = 3 * log;
+        double beta = 6 * log;
+        double queued = estimatedLimit * (1 - minRtt / smoothedRtt);
+
+        if (queued <= log) {
+            // Only grow when the limit is actually being used, not when traffic is light
+            if (inFlightAtCompletion * 2 < limit) return;
+            setLimit(estimatedLimit + beta);
+        } else if (queued < alpha) {
+            setLimit(estimatedLimit + log);
+        } else if (queued > beta) {
+            setLimit(estimatedLimit - log);
+        }
+    }
+
+    private void setLimit(double newLimit) {
+        estimatedLimit = Math.max(MIN_LIMIT, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() { return limit; }
+    public int getInFlight() { return inFlight.get(); }
+
+    public synchronized long getMinRttMicros() {
+        return minRtt / 1000;
+    }
+}
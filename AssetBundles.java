@@ -0,0 +1,112 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Moves inline <style> and <script> blocks out of page markup into static files named
+// by a hash of their content, e.g. /bundles/3f2a9c41d0b7.css. A changed stylesheet gets a
+// new name, so the files can be cached forever (immutable) and pages shrink to markup.
+// Each bundle is gzipped once at registration and served pre-compressed.
+//
+//   String page = bundles.extract(html);          // at startup
+//   router.get("/bundles/{file}", bundles);
+class AssetBundles implements HttpHandler {
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final Pattern INLINE_BLOCK =
+            Pattern.compile("<(style|script)>(.*?)</\\1>", Pattern.DOTALL);
+
+    private final String prefix;
+    private final Map<String, Bundle> bundles = new ConcurrentHashMap<>();
+
+    // prefix is the URL path the handler is mounted under, e.g. "/bundles/"
+    public AssetBundles(String prefix) {
+        this.prefix = prefix;
+    }
+
+    // Replaces every attribute-less <style> and <script> element with a reference to its
+    // bundle; scripts stay in place and load synchronously, so inline handlers still work
+    public String extract(String html) {
+        Matcher matcher = INLINE_BLOCK.matcher(html);
+        StringBuilder page = new StringBuilder(html.length());
+        while (matcher.find()) {
+            boolean style = matcher.group(1).equals("style");
+            String url = register(matcher.group(2).strip(), style ? "css" : "js");
+            String tag = style
+                    ? "<link rel=\"stylesheet\" href=\"" + url + "\">"
+                    : "<script src=\"" + url + "\"></script>";
+            matcher.appendReplacement(page, Matcher.quoteReplacement(tag));
+        }
+        matcher.appendTail(page);
+        return page.toString();
+    }
+
+    // Stores the content and returns its immutable URL
+    public String register(String content, String extension) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String name = hash(bytes) + "." + extension;
+        bundles.computeIfAbsent(name, n -> new Bundle(bytes, extension.equals("css")
+                ? "text/css; charset=UTF-8" : "application/javascript; charset=UTF-8"));
+        return prefix + name;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        String name = request.getPath().substring(Math.min(prefix.length(), request.getPath().length()));
+        Bundle bundle = bundles.get(name);
+        if (bundle == null) {
+            return HttpResponse.json(404, "{\"success\": false, \"message\": \"Bundle not found\"}");
+        }
+
+        // The name already identifies the content, so any validator the client holds is current
+        if (request.getIfNoneMatch() != null) {
+            return new HttpResponse(304, bundle.contentType, new byte[0])
+                    .header("Cache-Control", CACHE_CONTROL)
+                    .header("ETag", "\"" + name + "\"");
+        }
+
+        boolean gzip = bundle.gzipped != null && request.acceptsEncoding(HttpRequest.ENCODING_GZIP);
+        HttpResponse response = new HttpResponse(200, bundle.contentType, gzip ? bundle.gzipped : bundle.bytes)
+                .header("Cache-Control", CACHE_CONTROL)
+                .header("ETag", "\"" + name + "\"")
+                .header("Vary", "Accept-Encoding");
+        if (gzip) response.header("Content-Encoding", "gzip");
+        return response;
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Best compression, since it is paid once per bundle; null if gzip does not shrink it
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.size() < bytes.length ? out.toByteArray() : null;
+    }
+
+    private static class Bundle {
+        final byte[] bytes;
+        final byte[] gzipped;
+        final String contentType;
+
+        Bundle(byte[] bytes, String contentType) {
+            this.bytes = bytes;
+            this.gzipped = gzip(bytes);
+            this.contentType = contentType;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+// Compact binary form of the car and booking lists, sent instead of JSON to clients that
+// ask for it with Accept: application/x-drivenow-bin. BinaryReader decodes it.
+//
+//   message  = 'D' 'N' version kind (cars | bookings)
+//   cars     = fleetVersion count car* next removedCount removedId*
+//   car      = idDelta model type location rent flags
+//   bookings = count booking* next
+//   booking  = idDelta userId carId startDay nights amount status
+//
+// Integers are LEB128 varints, zigzag-encoded where they may be negative. idDelta is the
+// difference from the previous id in the list, so an id-ordered page spends a byte per id.
+// Money is fixed-point paise (x100), dates are epoch days, next is -1 on the last page and
+// flags bit 0 is "available". type, location and status are dictionary strings: 0 is null,
+// 1 defines the next entry with the string that follows, n >= 2 repeats entry n - 2. Other
+// strings are length + 1 (0 for null) and UTF-8.
+class BinaryWire {
+    static final String MEDIA_TYPE = "application/x-drivenow-bin";
+    static final int VERSION = 1;
+    static final int KIND_CARS = 1;
+    static final int KIND_BOOKINGS = 2;
+
+    // True if one of the Accept header's media ranges is ours and not refused with q=0.
+    // Wildcards don't count: a client only gets this format by naming it.
+    static boolean accepts(HttpRequest request) {
+        String accept = request.getHeader("Accept");
+        if (accept == null) return false;
+        for (String range : accept.split(",")) {
+            String[] params = range.split(";");
+            if (params[0].trim().equalsIgnoreCase(MEDIA_TYPE) && !refused(params)) return true;
+        }
+        return false;
+    }
+
+    private static boolean refused(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+                for (int c = 2; c < param.length(); c++) {
+                    if (param.charAt(c) >= '1' && param.charAt(c) <= '9') return false;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+class BinaryWriter {
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private byte[] bytes;
+    private int count;
+    private long lastId;
+
+    public BinaryWriter(int kind, int expectedSize) {
+        this.bytes = new byte[Math.max(64, expectedSize)];
+        put((byte) 'D');
+        put((byte) 'N');
+        put((byte) BinaryWire.VERSION);
+        put((byte) kind);
+    }
+
+    public BinaryWriter varint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[count++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[count++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter signed(long value) {
+        return varint(value << 1 ^ value >> 63);
+    }
+
+    // Ids are written relative to the previous one
+    public BinaryWriter id(long id) {
+        signed(id - lastId);
+        lastId = id;
+        return this;
+    }
+
+    public BinaryWriter money(double amount) {
+        return signed(Math.round(amount * 100));
+    }
+
+    public BinaryWriter date(LocalDate date) {
+        return signed(date.toEpochDay());
+    }
+
+    public BinaryWriter flag(boolean value) {
+        put((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public BinaryWriter string(String value) {
+        if (value == null) return varint(0);
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        varint(utf8.length + 1);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, bytes, count, utf8.length);
+        count += utf8.length;
+        return this;
+    }
+
+    // For the few values that repeat on every row (type, location, status)
+    public BinaryWriter dictionaryString(String value) {
+        if (value == null) return varint(0);
+        Integer entry = dictionary.get(value);
+        if (entry != null) return varint(entry + 2);
+        dictionary.put(value, dictionary.size());
+        return varint(1).string(value);
+    }
+
+    public byte[] finish() {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    public HttpResponse toResponse(int status) {
+        return new HttpResponse(status, BinaryWire.MEDIA_TYPE, finish());
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        bytes[count++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (count + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+        }
+    }
+}
+
+// Client side: BinaryReader.decodeCars(body) / decodeBookings(body) turn a response body
+// back into records; the primitive readers are there for other message kinds
+class BinaryReader {
+    record CarRecord(int id, String model, String type, double rentPerDay, String location, boolean available) {}
+
+    record CarList(long fleetVersion, List<CarRecord> cars, int next, List<Integer> removed) {}
+
+    record BookingRecord(int id, int userId, int carId, LocalDate startDate, LocalDate endDate,
+                         double totalAmount, String status) {}
+
+    record BookingList(List<BookingRecord> bookings, int next) {}
+
+    private final byte[] bytes;
+    private final List<String> dictionary = new ArrayList<>();
+    private int position;
+    private long lastId;
+
+    public BinaryReader(byte[] bytes, int expectedKind) {
+        this.bytes = bytes;
+        if (bytes.length < 4 || bytes[0] != 'D' || bytes[1] != 'N') {
+            throw new IllegalArgumentException("Not a " + BinaryWire.MEDIA_TYPE + " message");
+        }
+        if (bytes[2] != BinaryWire.VERSION || bytes[3] != expectedKind) {
+            throw new IllegalArgumentException("Unsupported message version " + bytes[2] + " kind " + bytes[3]);
+        }
+        position = 4;
+    }
+
+    public static CarList decodeCars(byte[] message) {
+        BinaryReader in = new BinaryReader(message, BinaryWire.KIND_CARS);
+        long fleetVersion = in.varint();
+        int size = in.count();
+        List<CarRecord> cars = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int id = (int) in.id();
+            String model = in.string();
+            String type = in.dictionaryString();
+            String location = in.dictionaryString();
+            double rentPerDay = in.money();
+            cars.add(new CarRecord(id, model, type, rentPerDay, location, in.flag()));
+        }
+        int next = (int) in.signed();
+        int removedCount = in.count();
+        List<Integer> removed = new ArrayList<>(removedCount);
+        for (int i = 0; i < removedCount; i++) {
+            removed.add((int) in.varint());
+        }
+        return new CarList(fleetVersion, cars, next, removed);
+    }
+
+    public static BookingList decodeBookings(byte[] message) {
+        BinaryReader in = new BinaryReader(message, BinaryWire.KIND_BOOKINGS);
+        int size = in.count();
+        List<BookingRecord> bookings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int id = (int) in.id();
+            int userId = (int) in.varint();
+            int carId = (int) in.varint();
+            LocalDate start = in.date();
+            LocalDate end = start.plusDays(in.varint());
+            bookings.add(new BookingRecord(id, userId, carId, start, end, in.money(), in.dictionaryString()));
+        }
+        return new BookingList(bookings, (int) in.signed());
+    }
+
+    public long varint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = next();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint at " + position);
+    }
+
+    public long signed() {
+        long value = varint();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    public long id() {
+        lastId += signed();
+        return lastId;
+    }
+
+    public double money() {
+        return signed() / 100.0;
+    }
+
+    public LocalDate date() {
+        return LocalDate.ofEpochDay(signed());
+    }
+
+    public boolean flag() {
+        return (next() & 1) != 0;
+    }
+
+    public String string() {
+        long length = varint() - 1;
+        if (length == -1) return null;
+        if (length < 0 || length > bytes.length - position) throw truncated();
+        String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+        position += (int) length;
+        return value;
+    }
+
+    public String dictionaryString() {
+        long code = varint();
+        if (code == 0) return null;
+        if (code == 1) {
+            String value = string();
+            dictionary.add(value);
+            return value;
+        }
+        if (code < 0 || code - 2 >= dictionary.size()) {
+            throw new IllegalArgumentException("Undefined dictionary entry " + (code - 2) + " at " + position);
+        }
+        return dictionary.get((int) code - 2);
+    }
+
+    // A list length; every entry takes at least a byte, so one past the bytes left is corrupt
+    private int count() {
+        long count = varint();
+        if (count < 0 || count > bytes.length - position) throw truncated();
+        return (int) count;
+    }
+
+    private byte next() {
+        if (position >= bytes.length) throw truncated();
+        return bytes[position++];
+    }
+
+    private IllegalArgumentException truncated() {
+        return new IllegalArgumentException("Truncated message at " + position);
+    }
+}
@@ -1,11 +1,19 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.time.LocalDate;
 
 // Main Application Class
 public class CarRentalBackend {
     private static CarService carService = new CarService();
     private static UserService userService = new UserService();
-    private static BookingService bookingService = new BookingService();
+    private static BookingService bookingService = new BookingService(carService);
     
     public static void main(String[] args) {
         // Initialize data
@@ -61,6 +69,8 @@ class Car {
     private String type;
     private double rentPerDay;
     private String location;
+    // Whether the car is offered for rent at all; which dates it is booked for is
+    // BookingService's calendar
     private boolean available;
     
     public Car(int id, String model, String type, double rentPerDay, String location, boolean available) {
@@ -80,6 +90,7 @@ class Car {
     public String getLocation() { return location; }
     public boolean isAvailable() { return available; }
     public void setAvailable(boolean available) { this.available = available; }
+    public void setRentPerDay(double rentPerDay) { this.rentPerDay = rentPerDay; }
     
     @Override
     public String toString() {
@@ -154,109 +165,858 @@ class Booking {
 
 // Services
 class CarService {
-    private List<Car> cars = new ArrayList<>();
+    // Fleet order; request threads iterate it while cars are added and removed
+    private List<Car> cars = new CopyOnWriteArrayList<>();
     private int nextId = 1;
+    // Each car's JSON object, encoded once and reused by every list response until the
+    // car's availability or price no longer matches what was encoded
+    private Map<Integer, CarJson> jsonCache = new ConcurrentHashMap<>();
+    // The same cars by id: hashed for lookups, and in id order for keyset pagination
+    private Map<Integer, Car> carIndex = new ConcurrentHashMap<>();
+    private NavigableMap<Integer, Car> carsById = new ConcurrentSkipListMap<>();
+    // Fleet version, bumped by every change made through this service. It starts at the
+    // startup time in milliseconds so versions handed out before a restart stay older.
+    private final long firstVersion = System.currentTimeMillis();
+    private final AtomicLong version = new AtomicLong(firstVersion);
+    // Version at which each car was last added or changed, and at which removed cars went
+    private Map<Integer, Long> changedAt = new ConcurrentHashMap<>();
+    private Map<Integer, Long> removedAt = new ConcurrentHashMap<>();
+    // Type, location, availability and price bitmaps behind filterCars
+    private final CarBitmapIndex filterIndex = new CarBitmapIndex();
+    // Cars cheapest first, keyed by priceKey
+    private NavigableMap<Long, Car> carsByPrice = new ConcurrentSkipListMap<>();
+    // How many cars a price-ordered walk may pass over per car asked for before the bitmaps
+    // are cheaper: past this the filters match too few cars for walking to pay off
+    private static final int PRICE_WALK_FACTOR = 64;
+    
+    public long getVersion() {
+        return version.get();
+    }
+    
+    // True if since is a version this service handed out, so getChangedSince can answer it
+    public boolean isKnownVersion(long since) {
+        return since >= firstVersion && since <= version.get();
+    }
+    
+    // Cars added or changed after version since, in fleet order
+    public List<Car> getChangedSince(long since) {
+        return cars.stream().filter(car -> changedAt.getOrDefault(car.getId(), firstVersion) > since).toList();
+    }
+    
+    public List<Integer> getRemovedSince(long since) {
+        return removedAt.entrySet().stream()
+                .filter(entry -> entry.getValue() > since)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+    }
+    
+    // Availability changes go through here so the fleet version sees them
+    public boolean setAvailable(int id, boolean available) {
+        Car car = getCarById(id);
+        if (car == null) return false;
+        car.setAvailable(available);
+        filterIndex.setAvailable(id, available);
+        changed(id);
+        return true;
+    }
+    
+    // Price changes go through here so the price and filter indexes follow
+    public boolean setRentPerDay(int id, double rentPerDay) {
+        Car car = getCarById(id);
+        if (car == null) return false;
+        carsByPrice.remove(priceKey(car));
+        car.setRentPerDay(rentPerDay);
+        carsByPrice.put(priceKey(car), car);
+        filterIndex.setRentPerDay(id, rentPerDay);
+        changed(id);
+        return true;
+    }
+    
+    private void changed(int id) {
+        long next = version.incrementAndGet();
+        changedAt.put(id, next);
+        removedAt.remove(id);
+    }
     
     public List<Car> getAllCars() {
         return new ArrayList<>(cars);
     }
     
     public Car getCarById(int id) {
-        return cars.stream().filter(car -> car.getId() == id).findFirst().orElse(null);
+        return carIndex.get(id);
+    }
+    
+    // The cars with the given ids, in the order asked for; ids with no car are left out
+    public List<Car> getCarsByIds(Collection<Integer> ids) {
+        List<Car> found = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Car car = carIndex.get(id);
+            if (car != null) found.add(car);
+        }
+        return found;
     }
     
-    public Car addCar(Car car) {
-        cars.add(car);
+    // A car with an id already in the fleet replaces that one in place, as in every index.
+    // Adds and removes are serialized so the list and the indexes change together.
+    public synchronized Car addCar(Car car) {
+        Car previous = carIndex.put(car.getId(), car);
+        if (previous == null) {
+            cars.add(car);
+        } else {
+            cars.replaceAll(existing -> existing.getId() == car.getId() ? car : existing);
+            carsByPrice.remove(priceKey(previous));
+            jsonCache.remove(car.getId());
+        }
+        carsByPrice.put(priceKey(car), car);
+        carsById.put(car.getId(), car);
+        filterIndex.add(car);
+        changed(car.getId());
         return car;
     }
     
-    public boolean removeCar(int id) {
-        return cars.removeIf(car -> car.getId() == id);
+    public synchronized boolean removeCar(int id) {
+        jsonCache.remove(id);
+        Car removed = carIndex.remove(id);
+        if (removed != null) carsByPrice.remove(priceKey(removed));
+        carsById.remove(id);
+        filterIndex.remove(id);
+        if (!cars.removeIf(car -> car.getId() == id)) return false;
+        changedAt.remove(id);
+        removedAt.put(id, version.incrementAndGet());
+        return true;
+    }
+    
+    // UTF-8 bytes of {"id":..,"model":..,...}, ready for JsonWriter.rawValue
+    public byte[] getCarJson(Car car) {
+        CarJson cached = jsonCache.get(car.getId());
+        if (cached != null && cached.matches(car)) {
+            return cached.bytes;
+        }
+        CarJson encoded = new CarJson(car);
+        jsonCache.put(car.getId(), encoded);
+        return encoded.bytes;
+    }
+    
+    // Up to limit cars with ids above afterId, in id order; the last id is the next cursor
+    public List<Car> getCarsAfter(int afterId, int limit) {
+        List<Car> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Car car : carsById.tailMap(afterId, false).values()) {
+            if (page.size() == limit) break;
+            page.add(car);
+        }
+        return page;
     }
     
     public List<Car> getAvailableCars() {
-        return cars.stream().filter(Car::isAvailable).toList();
+        return filterIndex.filter(null, null, null, null, true);
     }
     
     public List<Car> filterCars(String type, String location, Double maxPrice) {
-        return cars.stream()
-                .filter(car -> type == null || car.getType().equalsIgnoreCase(type))
-                .filter(car -> location == null || car.getLocation().contains(location))
-                .filter(car -> maxPrice == null || car.getRentPerDay() <= maxPrice)
-                .toList();
+        return filterIndex.filter(type, location, null, maxPrice, null);
+    }
+    
+    public List<Car> filterCars(String type, String location, Double minPrice, Double maxPrice, Boolean available) {
+        return filterIndex.filter(type, location, minPrice, maxPrice, available);
+    }
+    
+    // The n cheapest available cars of a type in a location (either may be null)
+    public List<Car> getCheapestCars(String type, String location, int n) {
+        return getCarsByPrice(type, location, null, null, true, Long.MIN_VALUE, n);
+    }
+    
+    // Up to limit cars past the afterKey cursor, cheapest first with ties in id order, matched
+    // like filterCars; priceKey of the last car is the next cursor. The walk along the price
+    // index stops at limit matches, so it costs about limit over the share of cars that
+    // match, whatever the fleet size. Rarer matches are found with the bitmaps and sorted.
+    public List<Car> getCarsByPrice(String type, String location, Double minPrice, Double maxPrice,
+                                    Boolean available, long afterKey, int limit) {
+        long from = Math.max(afterKey, minPrice == null ? Long.MIN_VALUE : priceKey(minPrice, 0) - 1);
+        long to = maxPrice == null ? Long.MAX_VALUE : priceKey(maxPrice, -1);
+        if (from >= to) return new ArrayList<>();
+        
+        List<Car> page = new ArrayList<>(Math.min(limit, 1024));
+        long budget = (long) limit * PRICE_WALK_FACTOR;
+        for (Car car : carsByPrice.subMap(from, false, to, true).values()) {
+            if (page.size() == limit) return page;
+            if (--budget < 0) {
+                return pageByPrice(filterIndex.filter(type, location, minPrice, maxPrice, available), afterKey, limit);
+            }
+            if ((type == null || type.equalsIgnoreCase(car.getType()))
+                    && (location == null || (car.getLocation() != null && car.getLocation().contains(location)))
+                    && (available == null || car.isAvailable() == available)) {
+                page.add(car);
+            }
+        }
+        return page;
+    }
+    
+    // The page of cars after afterKey in price order, from cars in any order
+    public static List<Car> pageByPrice(List<Car> cars, long afterKey, int limit) {
+        List<Car> page = new ArrayList<>(cars);
+        page.removeIf(car -> priceKey(car) <= afterKey);
+        page.sort(Comparator.comparingLong(CarService::priceKey));
+        return new ArrayList<>(page.subList(0, Math.min(limit, page.size())));
+    }
+    
+    // Which days each car is booked, for findFreeCars; BookingService keeps this current.
+    // Only the days from getOccupancyStart to getOccupancyEnd are kept.
+    public void setBooked(int id, LocalDate startDate, LocalDate endDate, boolean booked) {
+        filterIndex.setBooked(id, startDate.toEpochDay(), endDate.toEpochDay(), booked);
+    }
+    
+    public LocalDate getOccupancyStart() {
+        return LocalDate.ofEpochDay(filterIndex.getHorizonStart());
+    }
+    
+    public LocalDate getOccupancyEnd() {
+        return LocalDate.ofEpochDay(filterIndex.getHorizonStart() + CarBitmapIndex.HORIZON_DAYS);
+    }
+    
+    // Drops the days before today; returns the first day that entered at the far end, the
+    // days from there to getOccupancyEnd being empty until setBooked fills them in
+    public LocalDate advanceOccupancy(LocalDate today) {
+        return LocalDate.ofEpochDay(filterIndex.advanceHorizon(today.toEpochDay()));
+    }
+    
+    // Available cars matching the filters with no booking on the days of [startDate, endDate)
+    // from getOccupancyStart to getOccupancyEnd; days outside those are not checked
+    public List<Car> findFreeCars(String type, String location, Double minPrice, Double maxPrice,
+                                  LocalDate startDate, LocalDate endDate) {
+        return filterIndex.filterFree(type, location, minPrice, maxPrice, startDate.toEpochDay(), endDate.toEpochDay());
+    }
+    
+    // Price in paise in the high half, id in the low half: orders cars by price, then id
+    public static long priceKey(Car car) {
+        return priceKey(car.getRentPerDay(), car.getId());
+    }
+    
+    private static long priceKey(double rentPerDay, int id) {
+        return Math.min(CarBitmapIndex.paise(rentPerDay), Integer.MAX_VALUE) << 32 | (id & 0xFFFFFFFFL);
+    }
+    
+    private static class CarJson {
+        final Car car;
+        final boolean available;
+        final double rentPerDay;
+        final byte[] bytes;
+        
+        CarJson(Car car) {
+            this.car = car;
+            this.available = car.isAvailable();
+            this.rentPerDay = car.getRentPerDay();
+            this.bytes = JsonWriter.acquire().beginObject()
+                    .field("id", car.getId())
+                    .field("model", car.getModel())
+                    .field("type", car.getType())
+                    .field("rentPerDay", rentPerDay)
+                    .field("location", car.getLocation())
+                    .field("available", available)
+                    .endObject().finish();
+        }
+        
+        // Same Car object, and nothing that can change on it has changed since encoding
+        boolean matches(Car car) {
+            return this.car == car && available == car.isAvailable() && rentPerDay == car.getRentPerDay();
+        }
+    }
+}
+
+// Bitmap indexes over the fleet for filterCars. Each car gets a slot, in the order cars
+// were added, and each attribute a bitmap of slots: one per type, one per location and
+// one for available cars. Rent is a bit-sliced index of the price in paise, so
+// "rent <= max" costs the same few word operations per 64 cars however many distinct
+// prices there are. A query ANDs the bitmaps 64 cars at a time and only then touches cars.
+// For date searches there is also a bitmap per day of the cars booked that day.
+class CarBitmapIndex {
+    static final int HORIZON_DAYS = 732;
+    
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Integer> slotsById = new HashMap<>();
+    private Car[] carsBySlot = new Car[1024];
+    private int nextSlot;
+    // Bitmaps grow as slots are handed out; words past the end of one read as zero
+    private long[] live = new long[0];
+    private long[] available = new long[0];
+    private final Map<String, long[]> byType = new HashMap<>();
+    private final Map<String, long[]> byLocation = new HashMap<>();
+    // priceSlices.get(i) has the slots whose rent in paise has bit i set
+    private final List<long[]> priceSlices = new ArrayList<>();
+    // Cars booked on each of the HORIZON_DAYS days from horizonStart, as a ring indexed by
+    // epoch day modulo HORIZON_DAYS: a day's bitmap is dropped once the day has passed and
+    // its place taken by the day entering at the far end. Null while nothing is booked.
+    private final long[][] bookedOn = new long[HORIZON_DAYS][];
+    private volatile long horizonStart = LocalDate.now().toEpochDay();
+    
+    public void add(Car car) {
+        lock.writeLock().lock();
+        try {
+            // A car id keeps its slot for good, so a car replaced or removed and added back
+            // still has the days it is booked marked
+            Integer slot = slotsById.get(car.getId());
+            if (slot == null) {
+                slot = nextSlot++;
+                if (slot == carsBySlot.length) carsBySlot = Arrays.copyOf(carsBySlot, slot * 2);
+                slotsById.put(car.getId(), slot);
+            } else {
+                unindex(slot);
+            }
+            carsBySlot[slot] = car;
+            live = set(live, slot);
+            if (car.isAvailable()) available = set(available, slot);
+            if (car.getType() != null) byType.put(car.getType(), set(byType.get(car.getType()), slot));
+            if (car.getLocation() != null) byLocation.put(car.getLocation(), set(byLocation.get(car.getLocation()), slot));
+            indexPrice(slot, car.getRentPerDay());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotsById.get(id);
+            if (slot != null) unindex(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void setAvailable(int id, boolean isAvailable) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotsById.get(id);
+            if (slot == null || carsBySlot[slot] == null) return;
+            if (isAvailable) {
+                available = set(available, slot);
+            } else {
+                clear(available, slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void setRentPerDay(int id, double rentPerDay) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotsById.get(id);
+            if (slot == null || carsBySlot[slot] == null) return;
+            for (long[] slice : priceSlices) {
+                clear(slice, slot);
+            }
+            indexPrice(slot, rentPerDay);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public long getHorizonStart() {
+        return horizonStart;
+    }
+    
+    // Marks the car booked, or free again, on the days of [startDay, endDay) inside the horizon
+    public void setBooked(int id, long startDay, long endDay, boolean booked) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotsById.get(id);
+            if (slot == null) return;
+            long to = Math.min(endDay, horizonStart + HORIZON_DAYS);
+            for (long day = Math.max(startDay, horizonStart); day < to; day++) {
+                int ring = Math.floorMod(day, HORIZON_DAYS);
+                if (booked) {
+                    bookedOn[ring] = set(bookedOn[ring], slot);
+                } else {
+                    clear(bookedOn[ring], slot);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Moves the horizon on to start at today, dropping the days that have passed. Returns
+    // the first day that entered at the far end; the days from there to the new end of the
+    // horizon enter empty, for the caller to fill in from its bookings.
+    public long advanceHorizon(long today) {
+        lock.writeLock().lock();
+        try {
+            long end = horizonStart + HORIZON_DAYS;
+            if (today <= horizonStart) return end;
+            for (long day = horizonStart; day < Math.min(today, end); day++) {
+                bookedOn[Math.floorMod(day, HORIZON_DAYS)] = null;
+            }
+            horizonStart = today;
+            return Math.max(end, today);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Same matching as the old stream filters: type ignoring case, location as a substring,
+    // rent from minPrice to maxPrice (compared in paise). Null means no condition; cars in
+    // fleet order.
+    public List<Car> filter(String type, String location, Double minPrice, Double maxPrice, Boolean isAvailable) {
+        lock.readLock().lock();
+        try {
+            return collect(match(type, location, minPrice, maxPrice, isAvailable));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Available cars matching the filters that are booked on none of the days of
+    // [startDay, endDay) inside the horizon: one pass per day clears that day's bookings
+    public List<Car> filterFree(String type, String location, Double minPrice, Double maxPrice,
+                                long startDay, long endDay) {
+        lock.readLock().lock();
+        try {
+            long[] result = match(type, location, minPrice, maxPrice, true);
+            long to = Math.min(endDay, horizonStart + HORIZON_DAYS);
+            for (long day = Math.max(startDay, horizonStart); day < to; day++) {
+                long[] booked = bookedOn[Math.floorMod(day, HORIZON_DAYS)];
+                if (booked != null) andNot(result, booked);
+            }
+            return collect(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Called with the read lock held
+    private long[] match(String type, String location, Double minPrice, Double maxPrice, Boolean isAvailable) {
+        long[] result = Arrays.copyOf(live, live.length);
+        if (type != null) {
+            and(result, union(byType, value -> value.equalsIgnoreCase(type)));
+        }
+        if (location != null) {
+            and(result, union(byLocation, value -> value.contains(location)));
+        }
+        if (isAvailable != null) {
+            if (isAvailable) {
+                and(result, available);
+            } else {
+                andNot(result, available);
+            }
+        }
+        if (minPrice != null) {
+            atLeast(result, paise(minPrice));
+        }
+        if (maxPrice != null) {
+            atMost(result, paise(maxPrice));
+        }
+        return result;
+    }
+    
+    private List<Car> collect(long[] result) {
+        int matches = 0;
+        for (long bits : result) {
+            matches += Long.bitCount(bits);
+        }
+        List<Car> cars = new ArrayList<>(matches);
+        for (int word = 0; word < result.length; word++) {
+            for (long bits = result[word]; bits != 0; bits &= bits - 1) {
+                cars.add(carsBySlot[word << 6 | Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+        return cars;
+    }
+    
+    private void indexPrice(int slot, double rentPerDay) {
+        long paise = paise(rentPerDay);
+        for (int i = 0; paise >>> i != 0; i++) {
+            if (i == priceSlices.size()) priceSlices.add(new long[0]);
+            if ((paise >>> i & 1) != 0) priceSlices.set(i, set(priceSlices.get(i), slot));
+        }
+    }
+    
+    // Takes the car in the slot out of every attribute bitmap; its booked days stay, since
+    // the bookings outlive the car in BookingService
+    private void unindex(int slot) {
+        Car car = carsBySlot[slot];
+        if (car == null) return;
+        carsBySlot[slot] = null;
+        clear(live, slot);
+        clear(available, slot);
+        if (car.getType() != null) clear(byType.get(car.getType()), slot);
+        if (car.getLocation() != null) clear(byLocation.get(car.getLocation()), slot);
+        for (long[] slice : priceSlices) {
+            clear(slice, slot);
+        }
+    }
+    
+    // Keeps the slots whose rent is at most max paise. The slices are walked from the top
+    // bit down: slots still equal to max's prefix drop out where their bit is above max's
+    // and are settled as less where it is below. One straight pass over the words per slice.
+    private void atMost(long[] result, long max) {
+        if (max < 0) {
+            Arrays.fill(result, 0);
+            return;
+        }
+        if (max >>> priceSlices.size() != 0) return;
+        long[] less = new long[result.length];
+        for (int i = priceSlices.size() - 1; i >= 0; i--) {
+            long[] slice = priceSlices.get(i);
+            int words = Math.min(result.length, slice.length);
+            if ((max >>> i & 1) != 0) {
+                for (int word = 0; word < words; word++) {
+                    less[word] |= result[word] & ~slice[word];
+                    result[word] &= slice[word];
+                }
+                // Past the end of the slice the bit is 0, so those slots are settled as less
+                for (int word = words; word < result.length; word++) {
+                    less[word] |= result[word];
+                }
+                Arrays.fill(result, words, result.length, 0);
+            } else {
+                for (int word = 0; word < words; word++) {
+                    result[word] &= ~slice[word];
+                }
+            }
+        }
+        for (int word = 0; word < result.length; word++) {
+            result[word] |= less[word];
+        }
+    }
+    
+    private void atLeast(long[] result, long min) {
+        if (min <= 0) return;
+        long[] below = result.clone();
+        atMost(below, min - 1);
+        andNot(result, below);
+    }
+    
+    // OR of the bitmaps whose value matches; a single match is returned as it is, not copied
+    private static long[] union(Map<String, long[]> bitmaps, Predicate<String> matches) {
+        long[] union = null;
+        boolean copied = false;
+        for (Map.Entry<String, long[]> entry : bitmaps.entrySet()) {
+            if (!matches.test(entry.getKey())) continue;
+            long[] bits = entry.getValue();
+            if (union == null) {
+                union = bits;
+                continue;
+            }
+            if (!copied || union.length < bits.length) {
+                union = Arrays.copyOf(union, Math.max(union.length, bits.length));
+                copied = true;
+            }
+            for (int i = 0; i < bits.length; i++) {
+                union[i] |= bits[i];
+            }
+        }
+        return union == null ? new long[0] : union;
+    }
+    
+    private static void and(long[] result, long[] bits) {
+        for (int i = 0; i < result.length; i++) {
+            result[i] &= i < bits.length ? bits[i] : 0;
+        }
+    }
+    
+    private static void andNot(long[] result, long[] bits) {
+        for (int i = 0; i < Math.min(result.length, bits.length); i++) {
+            result[i] &= ~bits[i];
+        }
+    }
+    
+    private static long[] set(long[] bits, int slot) {
+        int word = slot >>> 6;
+        if (bits == null) bits = new long[0];
+        if (word >= bits.length) bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+        bits[word] |= 1L << slot;
+        return bits;
+    }
+    
+    private static void clear(long[] bits, int slot) {
+        int word = slot >>> 6;
+        if (bits != null && word < bits.length) bits[word] &= ~(1L << slot);
+    }
+    
+    static long paise(double amount) {
+        return Math.max(0, Math.round(amount * 100));
     }
 }
 
 class UserService {
-    private List<User> users = new ArrayList<>();
+    private Map<Integer, User> usersById = new ConcurrentHashMap<>();
+    // The first user added under each username, the one logins resolve to
+    private Map<String, User> usersByUsername = new ConcurrentHashMap<>();
     
     public User getUserById(int id) {
-        return users.stream().filter(user -> user.getId() == id).findFirst().orElse(null);
+        return usersById.get(id);
     }
     
     public User getUserByUsername(String username) {
-        return users.stream().filter(user -> user.getUsername().equals(username)).findFirst().orElse(null);
+        return username == null ? null : usersByUsername.get(username);
     }
     
     public User addUser(User user) {
-        users.add(user);
+        usersById.put(user.getId(), user);
+        usersByUsername.putIfAbsent(user.getUsername(), user);
         return user;
     }
     
     public User authenticate(String username, String password) {
-        return users.stream()
-                .filter(user -> user.getUsername().equals(username) && user.getPassword().equals(password))
-                .findFirst()
-                .orElse(null);
+        User user = getUserByUsername(username);
+        return user != null && user.getPassword().equals(password) ? user : null;
+    }
+}
+
+// The car is missing, not offered or already booked on some of the dates asked for
+class BookingConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public BookingConflictException(String message) {
+        super(message);
+    }
+}
+
+// One item of a batch booking: what was asked for, and either the booking or why not
+class BookingRequest {
+    final int userId;
+    final int carId;
+    final LocalDate startDate;
+    final LocalDate endDate;
+    Booking booking;
+    String error;
+    
+    public BookingRequest(int userId, int carId, LocalDate startDate, LocalDate endDate) {
+        this.userId = userId;
+        this.carId = carId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+}
+
+// Each car's bookings as half-open [startDate, endDate) day ranges, endDate being the
+// return day. A car's bookings never overlap, so ordered by start they are ordered by end
+// too, and a sorted map keyed by start day answers what an interval tree would: the only
+// booking that can overlap [start, end) is the last one to start before end.
+class BookingCalendar {
+    private final Map<Integer, NavigableMap<Long, Booking>> byCar = new ConcurrentHashMap<>();
+    
+    public boolean isFree(int carId, LocalDate startDate, LocalDate endDate) {
+        NavigableMap<Long, Booking> calendar = byCar.get(carId);
+        if (calendar == null) return true;
+        Map.Entry<Long, Booking> last = calendar.lowerEntry(endDate.toEpochDay());
+        return last == null || !last.getValue().getEndDate().isAfter(startDate);
+    }
+    
+    // The car's bookings overlapping [startDate, endDate), in date order
+    public List<Booking> getOverlapping(int carId, LocalDate startDate, LocalDate endDate) {
+        NavigableMap<Long, Booking> calendar = byCar.get(carId);
+        if (calendar == null) return List.of();
+        List<Booking> overlapping = new ArrayList<>();
+        overlapping(calendar, startDate, endDate, overlapping::add);
+        return overlapping;
+    }
+    
+    // Every car's bookings overlapping [startDate, endDate)
+    public void forEachOverlapping(LocalDate startDate, LocalDate endDate, Consumer<Booking> action) {
+        for (NavigableMap<Long, Booking> calendar : byCar.values()) {
+            overlapping(calendar, startDate, endDate, action);
+        }
+    }
+    
+    private static void overlapping(NavigableMap<Long, Booking> calendar, LocalDate startDate, LocalDate endDate,
+                                    Consumer<Booking> action) {
+        Map.Entry<Long, Booking> before = calendar.floorEntry(startDate.toEpochDay());
+        if (before != null && before.getValue().getEndDate().isAfter(startDate)) {
+            action.accept(before.getValue());
+        }
+        calendar.subMap(startDate.toEpochDay(), false, endDate.toEpochDay(), false).values().forEach(action);
+    }
+    
+    // Callers check isFree first, under the lock that serialises bookings
+    public void reserve(Booking booking) {
+        byCar.computeIfAbsent(booking.getCarId(), id -> new ConcurrentSkipListMap<>())
+                .put(booking.getStartDate().toEpochDay(), booking);
+    }
+    
+    public void release(Booking booking) {
+        NavigableMap<Long, Booking> calendar = byCar.get(booking.getCarId());
+        if (calendar == null) return;
+        calendar.remove(booking.getStartDate().toEpochDay(), booking);
+        if (calendar.isEmpty()) byCar.remove(booking.getCarId());
     }
 }
 
 class BookingService {
-    private List<Booking> bookings = new ArrayList<>();
+    // The fleet bookings are taken from
+    private final CarService carService;
+    // Which dates each car is booked for
+    private final BookingCalendar calendar = new BookingCalendar();
+    // Bookings by id: hashed for lookups, and in id order for keyset pagination
+    private Map<Integer, Booking> bookingIndex = new ConcurrentHashMap<>();
+    private NavigableMap<Integer, Booking> bookings = new ConcurrentSkipListMap<>();
+    // Each user's and each car's bookings in id order. Changes happen under the service
+    // lock; the lists copy on write, so readers can walk them without it.
+    private Map<Integer, List<Booking>> bookingsByUser = new ConcurrentHashMap<>();
+    private Map<Integer, List<Booking>> bookingsByCar = new ConcurrentHashMap<>();
     private int nextId = 1;
     
-    public Booking createBooking(int userId, int carId, LocalDate startDate, LocalDate endDate) {
-        // Calculate total amount (simplified)
-        Car car = new CarService().getCarById(carId);
-        if (car == null || !car.isAvailable()) {
-            throw new RuntimeException("Car not available");
+    public BookingService(CarService carService) {
+        this.carService = carService;
+    }
+    
+    public synchronized Booking createBooking(int userId, int carId, LocalDate startDate, LocalDate endDate) {
+        if (!endDate.isAfter(startDate)) {
+            throw new IllegalArgumentException("endDate must be after startDate");
+        }
+        Car car = carService.getCarById(carId);
+        if (car == null || !car.isAvailable() || !calendar.isFree(carId, startDate, endDate)) {
+            throw new BookingConflictException("Car not available");
+        }
+        return book(userId, car, startDate, endDate);
+    }
+    
+    // Whether the car is offered and has no booking overlapping [startDate, endDate)
+    public boolean isCarFree(int carId, LocalDate startDate, LocalDate endDate) {
+        Car car = carService.getCarById(carId);
+        return car != null && car.isAvailable() && calendar.isFree(carId, startDate, endDate);
+    }
+    
+    public List<Booking> getOverlappingBookings(int carId, LocalDate startDate, LocalDate endDate) {
+        return calendar.getOverlapping(carId, startDate, endDate);
+    }
+    
+    // Cars that can be booked for all of [startDate, endDate), matched like filterCars, in
+    // fleet order. CarService's day bitmaps answer for the days they cover; a range reaching
+    // outside them is finished off with the calendar of each car left.
+    public List<Car> findAvailableCars(String type, String location, Double minPrice, Double maxPrice,
+                                       LocalDate startDate, LocalDate endDate) {
+        rollOccupancy();
+        List<Car> cars = carService.findFreeCars(type, location, minPrice, maxPrice, startDate, endDate);
+        if (startDate.isBefore(carService.getOccupancyStart()) || endDate.isAfter(carService.getOccupancyEnd())) {
+            cars.removeIf(car -> !calendar.isFree(car.getId(), startDate, endDate));
+        }
+        return cars;
+    }
+    
+    // On the first search of a new day the day bitmaps move on, and the days entering at
+    // the far end are filled in from the calendar
+    private void rollOccupancy() {
+        LocalDate today = LocalDate.now();
+        if (!today.isAfter(carService.getOccupancyStart())) return;
+        synchronized (this) {
+            LocalDate entered = carService.advanceOccupancy(today);
+            calendar.forEachOverlapping(entered, carService.getOccupancyEnd(),
+                    booking -> carService.setBooked(booking.getCarId(), booking.getStartDate(), booking.getEndDate(), true));
+        }
+    }
+    
+    // Books a whole batch in one pass under one lock. Every request is checked against the
+    // calendar and against the dates taken by earlier items of the same batch before
+    // anything is booked; with atomic, a single failure books nothing, otherwise each valid
+    // item is booked. Outcomes are left on the requests; returns how many were booked.
+    public synchronized int createBookings(List<BookingRequest> requests, boolean atomic) {
+        Map<Integer, List<BookingRequest>> reserved = new HashMap<>();
+        boolean allValid = true;
+        for (BookingRequest request : requests) {
+            request.error = validate(request, reserved);
+            if (request.error == null) {
+                reserved.computeIfAbsent(request.carId, id -> new ArrayList<>()).add(request);
+            } else {
+                allValid = false;
+            }
+        }
+        
+        if (atomic && !allValid) {
+            for (BookingRequest request : requests) {
+                if (request.error == null) request.error = "Not booked because another item in the batch failed";
+            }
+            return 0;
         }
         
+        int booked = 0;
+        for (BookingRequest request : requests) {
+            if (request.error != null) continue;
+            request.booking = book(request.userId, carService.getCarById(request.carId), request.startDate, request.endDate);
+            booked++;
+        }
+        return booked;
+    }
+    
+    private String validate(BookingRequest request, Map<Integer, List<BookingRequest>> reserved) {
+        if (!request.endDate.isAfter(request.startDate)) {
+            return "endDate must be after startDate";
+        }
+        Car car = carService.getCarById(request.carId);
+        if (car == null) {
+            return "Car " + request.carId + " not found";
+        }
+        if (!car.isAvailable() || !calendar.isFree(request.carId, request.startDate, request.endDate)) {
+            return "Car " + request.carId + " not available for those dates";
+        }
+        for (BookingRequest earlier : reserved.getOrDefault(request.carId, List.of())) {
+            if (earlier.startDate.isBefore(request.endDate) && request.startDate.isBefore(earlier.endDate)) {
+                return "Car " + request.carId + " not available for those dates";
+            }
+        }
+        return null;
+    }
+    
+    private Booking book(int userId, Car car, LocalDate startDate, LocalDate endDate) {
         long days = endDate.toEpochDay() - startDate.toEpochDay();
         double totalAmount = days * car.getRentPerDay();
         
-        Booking booking = new Booking(nextId++, userId, carId, startDate, endDate, totalAmount);
-        bookings.add(booking);
-        
-        // Mark car as unavailable
-        car.setAvailable(false);
+        Booking booking = new Booking(nextId++, userId, car.getId(), startDate, endDate, totalAmount);
+        bookingIndex.put(booking.getId(), booking);
+        bookings.put(booking.getId(), booking);
+        bookingsByUser.computeIfAbsent(userId, id -> new CopyOnWriteArrayList<>()).add(booking);
+        bookingsByCar.computeIfAbsent(car.getId(), id -> new CopyOnWriteArrayList<>()).add(booking);
+        calendar.reserve(booking);
+        carService.setBooked(car.getId(), startDate, endDate, true);
         
         return booking;
     }
     
+    public Booking getBookingById(int id) {
+        return bookingIndex.get(id);
+    }
+    
     public List<Booking> getBookingsByUser(int userId) {
-        return bookings.stream().filter(booking -> booking.getUserId() == userId).toList();
+        return Collections.unmodifiableList(bookingsByUser.getOrDefault(userId, List.of()));
+    }
+    
+    public List<Booking> getBookingsByCar(int carId) {
+        return Collections.unmodifiableList(bookingsByCar.getOrDefault(carId, List.of()));
     }
     
     public List<Booking> getAllBookings() {
-        return new ArrayList<>(bookings);
+        return new ArrayList<>(bookings.values());
     }
     
-    public boolean cancelBooking(int bookingId) {
-        Booking booking = bookings.stream()
-                .filter(b -> b.getId() == bookingId)
-                .findFirst()
-                .orElse(null);
-        
-        if (booking != null) {
-            // Mark car as available again
-            Car car = new CarService().getCarById(booking.getCarId());
-            if (car != null) {
-                car.setAvailable(true);
-            }
-            return bookings.removeIf(b -> b.getId() == bookingId);
+    // Up to limit bookings with ids above afterId, in id order; the last id is the next cursor
+    public List<Booking> getBookingsAfter(int afterId, int limit) {
+        List<Booking> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Booking booking : bookings.tailMap(afterId, false).values()) {
+            if (page.size() == limit) break;
+            page.add(booking);
         }
-        return false;
+        return page;
+    }
+    
+    public synchronized boolean cancelBooking(int bookingId) {
+        Booking booking = bookingIndex.remove(bookingId);
+        if (booking == null) return false;
+        
+        bookings.remove(bookingId);
+        unindex(bookingsByUser, booking.getUserId(), booking);
+        unindex(bookingsByCar, booking.getCarId(), booking);
+        // Free the dates again
+        calendar.release(booking);
+        carService.setBooked(booking.getCarId(), booking.getStartDate(), booking.getEndDate(), false);
+        return true;
+    }
+    
+    private static void unindex(Map<Integer, List<Booking>> index, int key, Booking booking) {
+        List<Booking> list = index.get(key);
+        if (list == null) return;
+        list.remove(booking);
+        if (list.isEmpty()) index.remove(key);
     }
 }
 
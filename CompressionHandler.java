@@ -0,0 +1,200 @@
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+// Compresses text responses from the wrapped handler for clients that accept it, gzip
+// preferred over deflate. Bodies under MIN_SIZE go out as they are: below about one
+// packet the encoding overhead eats the saving.
+//
+// Bodies that will be served again are compressed once, at the best level, and cached:
+// responses marked reusable (cached pages) keyed by their body array, and responses with
+// an ETag keyed by URL and tag. Other bodies are compressed per response at the default
+// level, and streamed bodies piece by piece as the server pulls them.
+//
+//   new EventLoopServer(9090, new CompressionHandler(router), workers);
+class CompressionHandler implements HttpHandler {
+    static final int MIN_SIZE = 1024;
+    // Compressed bytes kept across all cached bodies before the least recently used go
+    private static final long CACHE_BYTES = 16 * 1024 * 1024;
+    // zlib's default: on our repetitive JSON and markup it is as fast as the lower levels
+    // and within a few percent of the best ratio
+    private static final int DYNAMIC_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "text/html", "text/css", "text/plain", "application/json", "application/javascript", "image/svg+xml",
+            BinaryWire.MEDIA_TYPE);
+
+    private final HttpHandler handler;
+    private final Map<List<Object>, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+
+    public CompressionHandler(HttpHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public WorkerPool.Priority priority(HttpRequest request) {
+        return handler.priority(request);
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        HttpResponse response = handler.handle(request);
+        if (!compressible(response)) return response;
+
+        String encoding = request.acceptsEncoding(HttpRequest.ENCODING_GZIP) ? "gzip"
+                : request.acceptsEncoding(HttpRequest.ENCODING_DEFLATE) ? "deflate" : null;
+        if (encoding == null || (!response.isStreamed() && response.getBody().length < MIN_SIZE)) {
+            return identity(response);
+        }
+
+        HttpResponse compressed;
+        if (response.isStreamed()) {
+            compressed = response.withStream(new CompressedStream(response.getStream(), encoding));
+        } else {
+            byte[] body = response.getBody();
+            byte[] encoded = cacheable(request, response, encoding);
+            if (encoded.length >= body.length) {
+                return identity(response);
+            }
+            compressed = response.withBody(encoded);
+        }
+
+        // The compressed bytes differ from the identity body, so a strong tag becomes weak;
+        // HttpRequest.ifNoneMatch ignores the W/, so revalidation still gets its 304
+        String etag = response.getHeader("ETag");
+        if (etag != null && !etag.startsWith("W/")) compressed.header("ETag", "W/" + etag);
+        return vary(compressed.header("Content-Encoding", encoding));
+    }
+
+    // The body as it is, but shared caches must now keep one copy per Accept-Encoding
+    private static HttpResponse identity(HttpResponse response) {
+        HttpResponse copy = response.isStreamed()
+                ? response.withStream(response.getStream())
+                : response.withBody(response.getBody());
+        return vary(copy);
+    }
+
+    // Adds Accept-Encoding to whatever the handler already varies on
+    private static HttpResponse vary(HttpResponse response) {
+        String vary = response.getHeader("Vary");
+        return response.header("Vary", vary == null ? "Accept-Encoding" : vary + ", Accept-Encoding");
+    }
+
+    private static boolean compressible(HttpResponse response) {
+        if (response.getStatus() != 200 || response.isHeadOnly() || response.getFile() != null
+                || response.getHeader("Content-Encoding") != null) {
+            return false;
+        }
+        String contentType = response.getHeader("Content-Type");
+        if (contentType == null) return false;
+        int semicolon = contentType.indexOf(';');
+        return COMPRESSIBLE_TYPES.contains(semicolon < 0 ? contentType : contentType.substring(0, semicolon).trim());
+    }
+
+    // Compressed body, from the cache when the response says it will be served again
+    private byte[] cacheable(HttpRequest request, HttpResponse response, String encoding) {
+        byte[] body = response.getBody();
+        String etag = response.getHeader("ETag");
+        List<Object> key;
+        if (response.isReusable()) {
+            // byte[] compares by identity, so the key matches exactly this cached body
+            key = List.of(body, encoding);
+        } else if (etag != null) {
+            key = List.of(request.getPath(), String.valueOf(request.getQuery()), etag,
+                    response.getHeader("Content-Type"), encoding);
+        } else {
+            return compress(body, encoding, DYNAMIC_LEVEL);
+        }
+
+        synchronized (cache) {
+            byte[] cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+        byte[] encoded = compress(body, encoding, Deflater.BEST_COMPRESSION);
+        synchronized (cache) {
+            if (cache.put(key, encoded) == null) cachedBytes += encoded.length;
+            Iterator<byte[]> eldest = cache.values().iterator();
+            while (cachedBytes > CACHE_BYTES && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+        return encoded;
+    }
+
+    static byte[] compress(byte[] body, String encoding, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (DeflaterOutputStream stream = openCompressor(out, encoding, level, false)) {
+            stream.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // gzip frames raw deflate data with a header and CRC trailer; HTTP's "deflate" is zlib.
+    // Closing either stream releases its Deflater's native memory.
+    private static DeflaterOutputStream openCompressor(OutputStream out, String encoding, int level,
+                                                       boolean syncFlush) throws IOException {
+        if (encoding.equals("gzip")) {
+            return new GZIPOutputStream(out, 8 * 1024, syncFlush) {{ def.setLevel(level); }};
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 8 * 1024, syncFlush) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    // Compresses each piece the source produces and flushes it, so the client can decode
+    // and render the page head before the rest has been generated
+    private static class CompressedStream implements ChunkSource {
+        private final ChunkSource source;
+        private final String encoding;
+        private final HtmlBuffer plain = new HtmlBuffer(Template.STREAM_CHUNK_SIZE + 4 * 1024);
+        private HtmlBuffer target;
+        private DeflaterOutputStream compressor;
+
+        CompressedStream(ChunkSource source, String encoding) {
+            this.source = source;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public boolean fill(HtmlBuffer out) {
+            target = out;
+            plain.reset();
+            boolean more = source.fill(plain);
+            try {
+                if (compressor == null) {
+                    OutputStream sink = new OutputStream() {
+                        @Override
+                        public void write(int b) {
+                            target.write(new byte[] {(byte) b});
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                            target.write(b, off, len);
+                        }
+                    };
+                    compressor = openCompressor(sink, encoding, DYNAMIC_LEVEL, true);
+                }
+                plain.writeTo(compressor);
+                if (more) {
+                    compressor.flush();
+                } else {
+                    compressor.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return more;
+        }
+    }
+}
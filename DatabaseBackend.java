@@ -111,7 +111,7 @@ class DatabaseManager {
 class CarDAO {
     public List<Car> getAllCars() {
         List<Car> cars = new ArrayList<>();
-        String sql = "SELECT * FROM cars";
+        String sql = "SELECT id, model, type, rent_per_day, location, available FROM cars";
         
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
@@ -134,7 +134,7 @@ class CarDAO {
     }
     
     public Car getCarById(int id) {
-        String sql = "SELECT * FROM cars WHERE id = ?";
+        String sql = "SELECT id, model, type, rent_per_day, location, available FROM cars WHERE id = ?";
         
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -228,7 +228,7 @@ class UserDAO {
     }
     
     public User authenticate(String username, String password) {
-        String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
+        String sql = "SELECT id, username, password, role, email FROM users WHERE username = ? AND password = ?";
         
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -275,7 +275,7 @@ class BookingDAO {
     
     public List<Booking> getAllBookings() {
         List<Booking> bookings = new ArrayList<>();
-        String sql = "SELECT * FROM bookings";
+        String sql = "SELECT id, user_id, car_id, start_date, end_date, total_amount FROM bookings";
         
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
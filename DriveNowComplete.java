@@ -1,12 +1,28 @@
 import java.io.*;
-import java.net.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.time.LocalDate;
 
 public class DriveNowComplete {
     private static Map<String, User> users = new HashMap<>();
-    private static List<Car> cars = new ArrayList<>();
+    // The fleet changes a few times a day, so reads never lock; every change must go
+    // through addCar or call fleetChanged so the cached pages are rendered again
+    private static List<Car> cars = new CopyOnWriteArrayList<>();
     private static List<Booking> bookings = new ArrayList<>();
+    // Rendered pages for the current fleet; replaced wholesale when the fleet changes,
+    // so a render racing with a change lands in the discarded map
+    private static volatile Map<String, HttpResponse> pageCache = new ConcurrentHashMap<>();
+    
+    private static final int STREAM_FLEET_SIZE = 1000;
+    // Inline CSS and JS of every page, served from /bundles under content-hashed names
+    private static final AssetBundles BUNDLES = new AssetBundles("/bundles/");
+    
+    // Compiled once at startup; rendering only fills in the car slots
+    private static final Template<List<Car>> HOME_PAGE = compileHomePage();
+    private static final Template<List<Car>> DASHBOARD_PAGE = compileDashboard();
+    private static final Template<List<Car>> ADMIN_PAGE = compileAdminPage();
     
     static {
         // Initialize users
@@ -14,85 +30,79 @@ public class DriveNowComplete {
         users.put("user", new User("user", "user", "USER", "user@drivenow.com"));
         
         // Initialize cars
-        cars.add(new Car(2, "Maruti Swift", "Hatchback", 1200, "All Cities", true));
-        cars.add(new Car(3, "Honda City", "Sedan", 1800, "All Cities", true));
-        cars.add(new Car(4, "Hyundai Creta", "SUV", 2500, "All Cities", true));
-        cars.add(new Car(6, "Tata Nexon", "SUV", 2200, "All Cities", true));
-        cars.add(new Car(7, "Mahindra XUV300", "SUV", 2800, "All Cities", true));
-        cars.add(new Car(8, "Kia Seltos", "SUV", 3200, "All Cities", true));
+        addCar(new Car(2, "Maruti Swift", "Hatchback", 1200, "All Cities", true));
+        addCar(new Car(3, "Honda City", "Sedan", 1800, "All Cities", true));
+        addCar(new Car(4, "Hyundai Creta", "SUV", 2500, "All Cities", true));
+        addCar(new Car(6, "Tata Nexon", "SUV", 2200, "All Cities", true));
+        addCar(new Car(7, "Mahindra XUV300", "SUV", 2800, "All Cities", true));
+        addCar(new Car(8, "Kia Seltos", "SUV", 3200, "All Cities", true));
     }
     
     public static void main(String[] args) throws IOException {
-        ServerSocket server = new ServerSocket(5000);
+        EventLoopServer server = new EventLoopServer(5000, new CompressionHandler(createRouter()));
         System.out.println("Drive Now Server started on http://localhost:5000");
-        
-        while (true) {
-            Socket client = server.accept();
-            new Thread(() -> handleClient(client)).start();
-        }
+        server.start();
     }
     
-    private static void handleClient(Socket client) {
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-            PrintWriter out = new PrintWriter(client.getOutputStream());
-            
-            String request = in.readLine();
-            if (request != null) {
-                String[] parts = request.split(" ");
-                String method = parts[0];
-                String path = parts[1];
-                
-                // Read headers
-                String line;
-                while ((line = in.readLine()) != null && !line.isEmpty()) {
-                    // Skip headers
-                }
-                
-                if (path.equals("/")) {
-                    sendHomePage(out);
-                } else if (path.equals("/login")) {
-                    sendLoginPage(out);
-                } else if (path.equals("/dashboard")) {
-                    sendDashboard(out);
-                } else if (path.equals("/admin")) {
-                    sendAdminPage(out);
-                } else {
-                    send404(out);
-                }
+    static void addCar(Car car) {
+        cars.add(car);
+        fleetChanged();
+    }
+    
+    static void fleetChanged() {
+        pageCache = new ConcurrentHashMap<>();
+    }
+    
+    private static Router createRouter() {
+        return new Router()
+                .all("/", cachedPage("home", DriveNowComplete::sendHomePage))
+                .all("/login", cachedPage("login", DriveNowComplete::sendLoginPage))
+                .all("/dashboard", cachedPage("dashboard", DriveNowComplete::sendDashboard))
+                .all("/admin", adminPage())
+                .all("/assets/{file}", new StaticFileHandler(Paths.get("."), "file"))
+                .get("/bundles/{file}", BUNDLES)
+                .notFound(request -> send404());
+    }
+    
+    // Renders the page once per fleet version; later requests get the same response bytes
+    private static HttpHandler cachedPage(String name, Supplier<HttpResponse> render) {
+        return request -> {
+            Map<String, HttpResponse> pages = pageCache;
+            HttpResponse page = pages.get(name);
+            if (page == null) {
+                page = render.get().reusable();
+                pages.put(name, page);
             }
-            
-            client.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+            return page;
+        };
+    }
+    
+    private static HttpResponse sendHomePage() {
+        return HttpResponse.html(HOME_PAGE.render(cars));
     }
     
-    private static void sendHomePage(PrintWriter out) {
-        StringBuilder carsHtml = new StringBuilder();
+    private static Template<List<Car>> compileHomePage() {
         String[] carEmojis = {"🚗", "🚙", "🚕", "🏎️", "🚐", "🚑"};
-        
-        for (int i = 0; i < cars.size(); i++) {
-            Car car = cars.get(i);
-            String emoji = carEmojis[i % carEmojis.length];
-            carsHtml.append(String.format("""
+        Template<CarCard> card = Template.<CarCard>define("""
                 <div class="car-card">
-                    <div class="car-image">%s</div>
+                    <div class="car-image">{{emoji}}</div>
                     <div class="car-info">
-                        <h3>%s</h3>
-                        <p class="car-type">%s</p>
-                        <p class="car-location">📍 %s</p>
-                        <div class="car-price">₹%,.0f/day</div>
+                        <h3>{{model}}</h3>
+                        <p class="car-type">{{type}}</p>
+                        <p class="car-location">📍 {{location}}</p>
+                        <div class="car-price">₹{{rent}}/day</div>
                         <button class="btn btn-book" onclick="showLogin()">Login to Book</button>
                     </div>
                 </div>
-                """, emoji, car.model, car.type, car.location, car.rentPerDay));
-        }
+                """)
+                .text("emoji", c -> carEmojis[c.index % carEmojis.length])
+                .text("model", c -> c.car.model)
+                .text("type", c -> c.car.type)
+                .text("location", c -> c.car.location)
+                .amount("rent", c -> c.car.rentPerDay)
+                .compile();
         
-        String html = """
-            HTTP/1.1 200 OK
-            Content-Type: text/html
-            
+        return Template.<List<Car>>define(BUNDLES.extract("""
             <!DOCTYPE html>
             <html lang="en">
             <head>
@@ -192,7 +202,7 @@ public class DriveNowComplete {
                     </div>
                     
                     <div class="cars-grid">
-                        %s
+                        {{cars}}
                     </div>
                     
                     <div style="text-align: center; margin-top: 2rem;">
@@ -207,17 +217,11 @@ public class DriveNowComplete {
                 </script>
             </body>
             </html>
-            """.formatted(carsHtml.toString());
-        
-        out.print(html);
-        out.flush();
+            """)).each("cars", CarCard::of, card).compile();
     }
     
-    private static void sendLoginPage(PrintWriter out) {
+    private static HttpResponse sendLoginPage() {
         String html = """
-            HTTP/1.1 200 OK
-            Content-Type: text/html
-            
             <!DOCTYPE html>
             <html lang="en">
             <head>
@@ -321,42 +325,45 @@ public class DriveNowComplete {
             </body>
             </html>
             """;
-        out.print(html);
-        out.flush();
+        return HttpResponse.html(BUNDLES.extract(html));
     }
     
-    private static void sendDashboard(PrintWriter out) {
-        StringBuilder carsHtml = new StringBuilder();
+    private static HttpResponse sendDashboard() {
+        return HttpResponse.html(DASHBOARD_PAGE.render(cars));
+    }
+    
+    private static Template<List<Car>> compileDashboard() {
         String[] carImages = {
-            "https://images.unsplash.com/photo-1552519507-da3b142c6e3d?w=400",
-            "https://images.unsplash.com/photo-1563720223185-11003d516935?w=400", 
-            "https://images.unsplash.com/photo-1544636331-e26879cd4d9b?w=400",
-            "https://images.unsplash.com/photo-1583121274602-3e2820c69888?w=400",
-            "https://images.unsplash.com/photo-1605559424843-9e4c228bf1c2?w=400",
-            "https://images.unsplash.com/photo-1549317661-bd32c8ce0db2?w=400"
+            "/assets/shift.jpg",
+            "/assets/innova.jpg",
+            "/assets/hyundai.jpg",
+            "/assets/thar.jpg",
+            "/assets/mahindra.jpg",
+            "/assets/kia.jpg"
         };
-        
-        for (int i = 0; i < cars.size(); i++) {
-            Car car = cars.get(i);
-            String image = carImages[i % carImages.length];
-            carsHtml.append(String.format("""
+        Template<CarCard> card = Template.<CarCard>define("""
                 <div class="car-card">
-                    <div class="car-image" style="background-image: url('%s'); background-size: cover; background-position: center;"></div>
+                    <div class="car-image" style="background-image: url('{{image}}'); background-size: cover; background-position: center;"></div>
                     <div class="car-info">
-                        <h3>%s</h3>
-                        <p class="car-type">%s</p>
-                        <p class="car-location">📍 %s</p>
-                        <div class="car-price">₹%,.0f/day</div>
-                        <button class="btn btn-book" onclick="bookCar('%s', '%s', %,.0f)">Book Now</button>
+                        <h3>{{model}}</h3>
+                        <p class="car-type">{{type}}</p>
+                        <p class="car-location">📍 {{location}}</p>
+                        <div class="car-price">₹{{rent}}/day</div>
+                        <button class="btn btn-book" onclick="bookCar('{{jsModel}}', '{{jsLocation}}', {{rate}})">Book Now</button>
                     </div>
                 </div>
-                """, image, car.model, car.type, car.location, car.rentPerDay, car.model, car.location, car.rentPerDay));
-        }
+                """)
+                .text("image", c -> carImages[c.index % carImages.length])
+                .text("model", c -> c.car.model)
+                .text("type", c -> c.car.type)
+                .text("location", c -> c.car.location)
+                .amount("rent", c -> c.car.rentPerDay)
+                .js("jsModel", c -> c.car.model)
+                .js("jsLocation", c -> c.car.location)
+                .number("rate", c -> Math.round(c.car.rentPerDay))
+                .compile();
         
-        String html = """
-            HTTP/1.1 200 OK
-            Content-Type: text/html
-            
+        return Template.<List<Car>>define(BUNDLES.extract("""
             <!DOCTYPE html>
             <html lang="en">
             <head>
@@ -511,7 +518,7 @@ public class DriveNowComplete {
                     </div>
                     
                     <div class="cars-grid">
-                        %s
+                        {{cars}}
                     </div>
                 </div>
                 
@@ -546,33 +553,46 @@ public class DriveNowComplete {
                 </script>
             </body>
             </html>
-            """.formatted(carsHtml.toString());
-        
-        out.print(html);
-        out.flush();
+            """)).each("cars", CarCard::of, card).compile();
+    }
+    
+    // Small fleets get the cached page. Past STREAM_FLEET_SIZE cars the table is streamed
+    // instead: the header goes out at once and rows follow chunk by chunk, so the page is
+    // never held in memory as a whole
+    private static HttpHandler adminPage() {
+        HttpHandler cached = cachedPage("admin", DriveNowComplete::sendAdminPage);
+        return request -> cars.size() > STREAM_FLEET_SIZE ? streamAdminPage() : cached.handle(request);
+    }
+    
+    private static HttpResponse sendAdminPage() {
+        return HttpResponse.html(ADMIN_PAGE.render(cars));
+    }
+    
+    private static HttpResponse streamAdminPage() {
+        return HttpResponse.stream(200, "text/html; charset=UTF-8", ADMIN_PAGE.stream(cars));
     }
     
-    private static void sendAdminPage(PrintWriter out) {
-        StringBuilder carsTable = new StringBuilder();
-        for (Car car : cars) {
-            carsTable.append(String.format("""
+    private static Template<List<Car>> compileAdminPage() {
+        Template<Car> row = Template.<Car>define("""
                 <tr>
-                    <td>%d</td>
-                    <td>%s</td>
-                    <td>%s</td>
-                    <td>%s</td>
-                    <td>₹%,.0f</td>
-                    <td><span style="color: %s;">%s</span></td>
+                    <td>{{id}}</td>
+                    <td>{{model}}</td>
+                    <td>{{type}}</td>
+                    <td>{{location}}</td>
+                    <td>₹{{rent}}</td>
+                    <td><span style="color: {{statusColor}};">{{status}}</span></td>
                 </tr>
-                """, car.id, car.model, car.type, car.location, car.rentPerDay,
-                car.available ? "#059669" : "#dc2626",
-                car.available ? "Available" : "Booked"));
-        }
+                """)
+                .number("id", car -> car.id)
+                .text("model", car -> car.model)
+                .text("type", car -> car.type)
+                .text("location", car -> car.location)
+                .amount("rent", car -> car.rentPerDay)
+                .text("statusColor", car -> car.available ? "#059669" : "#dc2626")
+                .text("status", car -> car.available ? "Available" : "Booked")
+                .compile();
         
-        String html = """
-            HTTP/1.1 200 OK
-            Content-Type: text/html
-            
+        return Template.<List<Car>>define(BUNDLES.extract("""
             <!DOCTYPE html>
             <html lang="en">
             <head>
@@ -696,7 +716,7 @@ public class DriveNowComplete {
                                 </tr>
                             </thead>
                             <tbody>
-                                %s
+                                {{cars}}
                             </tbody>
                         </table>
                     </div>
@@ -716,22 +736,15 @@ public class DriveNowComplete {
                 </script>
             </body>
             </html>
-            """.formatted(carsTable.toString());
-        
-        out.print(html);
-        out.flush();
+            """)).each("cars", fleet -> fleet, row).compile();
     }
     
-    private static void send404(PrintWriter out) {
+    private static HttpResponse send404() {
         String html = """
-            HTTP/1.1 404 Not Found
-            Content-Type: text/html
-            
             <h1>404 - Page Not Found</h1>
             <a href="/">Go Home</a>
             """;
-        out.print(html);
-        out.flush();
+        return HttpResponse.html(404, html);
     }
     
     // Model Classes
@@ -750,6 +763,22 @@ public class DriveNowComplete {
         }
     }
     
+    // A car plus its position in the fleet, which picks the card's emoji or photo
+    static class CarCard {
+        final Car car; final int index;
+        CarCard(Car car, int index) {
+            this.car = car; this.index = index;
+        }
+        
+        static List<CarCard> of(List<Car> fleet) {
+            List<CarCard> cards = new ArrayList<>(fleet.size());
+            for (int i = 0; i < fleet.size(); i++) {
+                cards.add(new CarCard(fleet.get(i), i));
+            }
+            return cards;
+        }
+    }
+    
     static class Booking {
         int id; User user; Car car; LocalDate startDate, endDate; double totalAmount;
         Booking(int id, User user, Car car, LocalDate startDate, LocalDate endDate, double totalAmount) {
@@ -0,0 +1,316 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Non-blocking HTTP server: one acceptor thread hands connections to a small,
+// fixed set of selector loops, so open connections no longer cost an OS thread each.
+// Connections are persistent (HTTP/1.1 keep-alive) and pipelined requests are
+// answered strictly in the order they arrived. Handlers run inline on the loop unless
+// a WorkerPool is given, in which case they run on the pool and a full queue is
+// answered with 503 straight from the loop.
+public class EventLoopServer {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0);
+    static final int IDLE_TIMEOUT_SECONDS = 15;
+    static final int MAX_REQUESTS_PER_CONNECTION = 1000;
+
+    private final int port;
+    private final HttpHandler handler;
+    private final WorkerPool workers;
+    private final EventLoop[] loops;
+
+    public EventLoopServer(int port, HttpHandler handler) {
+        this(port, handler, null);
+    }
+
+    public EventLoopServer(int port, HttpHandler handler, WorkerPool workers) {
+        this(port, Runtime.getRuntime().availableProcessors(), handler, workers);
+    }
+
+    public EventLoopServer(int port, int loopCount, HttpHandler handler, WorkerPool workers) {
+        this.port = port;
+        this.handler = handler;
+        this.workers = workers;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+    }
+
+    // Starts the selector loops and runs the accept loop on the calling thread
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            int next = 0;
+            while (true) {
+                SocketChannel client = server.accept();
+                loops[next].register(client);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+        private long lastIdleSweep = System.currentTimeMillis();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel client) {
+            pending.add(client);
+            selector.wakeup();
+        }
+
+        // Runs the task on this loop's thread; used by workers to hand back responses
+        void execute(Runnable task) {
+            completions.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(1000);
+                    registerPending();
+                    runCompletions();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) conn.onReadable();
+                            if (key.isValid() && key.isWritable()) conn.onWritable();
+                        } catch (IOException | CancelledKeyException e) {
+                            conn.close();
+                        } catch (RuntimeException e) {
+                            // A failing handler must not take the whole loop down with it
+                            e.printStackTrace();
+                            conn.close();
+                        }
+                    }
+
+                    closeIdleConnections();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel client;
+            while ((client = pending.poll()) != null) {
+                try {
+                    client.configureBlocking(false);
+                    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    SelectionKey key = client.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, client, key));
+                } catch (IOException e) {
+                    try { client.close(); } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        private void runCompletions() {
+            Runnable task;
+            while ((task = completions.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleSweep < 1000) return;
+            lastIdleSweep = now;
+
+            long cutoff = now - IDLE_TIMEOUT_SECONDS * 1000L;
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (conn != null && !conn.inFlight && conn.lastActive < cutoff) {
+                    conn.close();
+                }
+            }
+        }
+    }
+
+    private class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final HttpRequestParser parser = new HttpRequestParser();
+        // Head and body are written with one gathering write; out[0] is null when idle
+        private final ByteBuffer[] out = new ByteBuffer[2];
+        private FileChannel file;
+        private long filePosition, fileRemaining;
+        // Streamed body: pulled a piece at a time into one reused buffer as the socket drains
+        private ChunkSource stream;
+        private HtmlBuffer streamBuffer;
+        private boolean chunked;
+        private boolean closeAfterWrite;
+        private boolean inFlight;
+        private int served;
+        private long lastActive = System.currentTimeMillis();
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void onReadable() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+
+            if (out[0] == null && !inFlight && dispatchNext()) {
+                onWritable();
+            }
+        }
+
+        void onWritable() throws IOException {
+            while (true) {
+                // Any progress on the response counts as activity, so a large file or a slow
+                // client is not swept as idle mid-body; a client that stops reading still is
+                if (channel.write(out) > 0) lastActive = System.currentTimeMillis();
+                // The body may be empty (a file, stream, 304 or HEAD) while the head is only partly sent
+                if (out[0].hasRemaining() || out[1].hasRemaining()) return;
+                if (fileRemaining > 0) {
+                    // Zero-copy: the kernel moves file pages straight to the socket
+                    long sent = file.transferTo(filePosition, fileRemaining, channel);
+                    if (sent > 0) lastActive = System.currentTimeMillis();
+                    filePosition += sent;
+                    fileRemaining -= sent;
+                    if (fileRemaining > 0) return;
+                    file = null;
+                }
+                if (stream != null) {
+                    nextChunk();
+                    continue;
+                }
+                lastActive = System.currentTimeMillis();
+                out[0] = out[1] = null;
+
+                if (closeAfterWrite) {
+                    close();
+                    return;
+                }
+                // Answer the next pipelined request if it is already buffered
+                if (!dispatchNext()) return;
+            }
+        }
+
+        // Starts handling the next complete buffered request. Returns true if its response
+        // is ready to write now, false if there is no request yet or it went to a worker.
+        private boolean dispatchNext() throws IOException {
+            in.flip();
+            HttpRequest request = parser.parse(in);
+            in.compact();
+            if (request == null) {
+                key.interestOps(SelectionKey.OP_READ);
+                return false;
+            }
+
+            served++;
+            boolean keepAlive = request.isKeepAlive() && served < MAX_REQUESTS_PER_CONNECTION;
+            if (workers == null) {
+                respond(handler.handle(request), request, keepAlive);
+                return true;
+            }
+
+            // Stop reading while the request is with a worker; pipelined bytes wait in the buffer
+            inFlight = true;
+            key.interestOps(0);
+            boolean queued = workers.trySubmit(handler.priority(request), () -> {
+                HttpResponse response;
+                try {
+                    response = handler.handle(request);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    response = HttpResponse.json(500, "{\"success\": false, \"message\": \"Internal server error\"}");
+                }
+                HttpResponse result = response;
+                loop.execute(() -> completeAsync(result, request, keepAlive));
+            });
+            if (!queued) {
+                inFlight = false;
+                respond(HttpResponse.serviceUnavailable("Server busy, please retry"), request, keepAlive);
+                return true;
+            }
+            return false;
+        }
+
+        private void completeAsync(HttpResponse response, HttpRequest request, boolean keepAlive) {
+            inFlight = false;
+            if (!key.isValid()) return;
+            try {
+                respond(response, request, keepAlive);
+                onWritable();
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                close();
+            }
+        }
+
+        private void respond(HttpResponse response, HttpRequest request, boolean keepAlive) {
+            // HTTP/1.0 has no chunked encoding, so a streamed body there ends with the connection
+            chunked = request.isHttp11();
+            if (response.isStreamed() && !chunked) keepAlive = false;
+
+            out[0] = ByteBuffer.wrap(response.headBytes(keepAlive, IDLE_TIMEOUT_SECONDS, chunked));
+            out[1] = ByteBuffer.wrap(response.getBody());
+            file = response.getFile();
+            filePosition = response.getFilePosition();
+            fileRemaining = file == null ? 0 : response.getFileCount();
+            stream = response.getStream();
+            if (stream != null && streamBuffer == null) {
+                streamBuffer = new HtmlBuffer(Template.STREAM_CHUNK_SIZE + 4 * 1024);
+            }
+            closeAfterWrite = !keepAlive;
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        // Pulls the next piece of the streamed body into out, framed as a chunk
+        private void nextChunk() {
+            streamBuffer.reset();
+            boolean more = stream.fill(streamBuffer);
+            int size = streamBuffer.size();
+            if (!more) stream = null;
+
+            out[0] = NO_BYTES;
+            if (chunked) {
+                if (size > 0) {
+                    out[0] = ByteBuffer.wrap((Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    streamBuffer.write(CRLF);
+                }
+                if (!more) streamBuffer.write(LAST_CHUNK);
+            }
+            out[1] = streamBuffer.asByteBuffer();
+        }
+
+        void close() {
+            key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+}
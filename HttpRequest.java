@@ -0,0 +1,167 @@
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Route handlers plug into the servers through this interface
+interface HttpHandler {
+    HttpResponse handle(HttpRequest request);
+
+    // Queue lane used when the server runs handlers on a WorkerPool
+    default WorkerPool.Priority priority(HttpRequest request) {
+        return WorkerPool.Priority.NORMAL;
+    }
+}
+
+// A parsed request. The head is kept as raw bytes with offsets recorded by
+// HttpRequestParser; strings are only created when a handler asks for them.
+class HttpRequest {
+    static final int CONNECTION_CLOSE = 1;
+    static final int CONNECTION_KEEP_ALIVE = 2;
+    static final int ENCODING_GZIP = 1;
+    static final int ENCODING_DEFLATE = 2;
+
+    private final String method;
+    private final byte[] head;
+    private final int targetStart, queryStart, targetEnd;
+    private final boolean http11;
+    private final int connectionFlags;
+    private final int acceptEncoding;
+    private final int ifNoneMatchStart, ifNoneMatchEnd;
+    private final byte[] body;
+    private String path;
+    private Map<String, String> pathParams = Collections.emptyMap();
+    private Map<String, String> queryParams;
+    private Object route;
+
+    HttpRequest(String method, byte[] head, int targetStart, int queryStart, int targetEnd, boolean http11,
+                int connectionFlags, int acceptEncoding, int ifNoneMatchStart, int ifNoneMatchEnd, byte[] body) {
+        this.method = method;
+        this.head = head;
+        this.targetStart = targetStart;
+        this.queryStart = queryStart;
+        this.targetEnd = targetEnd;
+        this.http11 = http11;
+        this.connectionFlags = connectionFlags;
+        this.acceptEncoding = acceptEncoding;
+        this.ifNoneMatchStart = ifNoneMatchStart;
+        this.ifNoneMatchEnd = ifNoneMatchEnd;
+        this.body = body;
+    }
+
+    // HTTP/1.1 connections persist unless the client asks to close; HTTP/1.0 only on request
+    public boolean isKeepAlive() {
+        if (http11) return (connectionFlags & CONNECTION_CLOSE) == 0;
+        return (connectionFlags & CONNECTION_KEEP_ALIVE) != 0;
+    }
+
+    public boolean isHttp11() { return http11; }
+
+    public boolean acceptsEncoding(int encoding) {
+        return (acceptEncoding & encoding) != 0;
+    }
+
+    public String getMethod() { return method; }
+
+    // Path without the query string
+    public String getPath() {
+        if (path == null) {
+            int end = queryStart < 0 ? targetEnd : queryStart - 1;
+            path = new String(head, targetStart, end - targetStart, StandardCharsets.UTF_8);
+        }
+        return path;
+    }
+
+    // Raw query string after '?', or null if there is none
+    public String getQuery() {
+        if (queryStart < 0) return null;
+        return new String(head, queryStart, targetEnd - queryStart, StandardCharsets.UTF_8);
+    }
+
+    // Set by Router from the {name} segments of the matched route
+    void setPathParams(Map<String, String> pathParams) {
+        this.pathParams = pathParams;
+    }
+
+    // Router's match for this request, kept so priority() and handle() walk the routes once
+    void setRoute(Object route) {
+        this.route = route;
+    }
+
+    Object getRoute() {
+        return route;
+    }
+
+    public String getPathParam(String name) {
+        return pathParams.get(name);
+    }
+
+    // For {name:int} segments, which the router has already checked are digits
+    public int getIntParam(String name) {
+        return Integer.parseInt(pathParams.get(name));
+    }
+
+    // URL-decoded query parameter; the first value wins when a name repeats
+    public String getQueryParam(String name) {
+        if (queryParams == null) {
+            queryParams = new HashMap<>();
+            String query = getQuery();
+            if (query != null) {
+                for (String pair : query.split("&")) {
+                    if (pair.isEmpty()) continue;
+                    int eq = pair.indexOf('=');
+                    String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                    String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                    queryParams.putIfAbsent(key, value);
+                }
+            }
+        }
+        return queryParams.get(name);
+    }
+
+    public String getIfNoneMatch() {
+        if (ifNoneMatchEnd == 0) return null;
+        return new String(head, ifNoneMatchStart, ifNoneMatchEnd - ifNoneMatchStart, StandardCharsets.ISO_8859_1);
+    }
+
+    // True if If-None-Match lists etag (weak or strong) or is "*"
+    public boolean ifNoneMatch(String etag) {
+        String header = getIfNoneMatch();
+        if (header == null) return false;
+        if (header.equals("*")) return true;
+        for (String tag : header.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+            if (candidate.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    // Looks up any other header by scanning the raw head; returns the first match or null
+    public String getHeader(String name) {
+        int lineStart = indexAfterNewline(0);
+        while (lineStart > 0 && lineStart < head.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < head.length && head[lineEnd] != '\r' && head[lineEnd] != '\n') lineEnd++;
+            if (lineEnd - lineStart > name.length() && head[lineStart + name.length()] == ':'
+                    && new String(head, lineStart, name.length(), StandardCharsets.ISO_8859_1).equalsIgnoreCase(name)) {
+                return new String(head, lineStart + name.length() + 1, lineEnd - lineStart - name.length() - 1,
+                        StandardCharsets.ISO_8859_1).trim();
+            }
+            lineStart = indexAfterNewline(lineEnd);
+        }
+        return null;
+    }
+
+    public byte[] getBody() { return body; }
+
+    public String getBodyAsString() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private int indexAfterNewline(int from) {
+        for (int i = from; i < head.length; i++) {
+            if (head[i] == '\n') return i + 1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Incremental HTTP/1.1 request parser. Bytes are fed in as they arrive and each byte is
+// examined once; the request line and headers are recognised directly on bytes, so the
+// only per-request allocations are the head copy handed to HttpRequest and the body.
+// One parser belongs to one connection and is reused for every request on it.
+class HttpRequestParser {
+    static final int MAX_HEAD_SIZE = 64 * 1024;
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    private enum State { HEAD, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER }
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes();
+    private static final byte[] CONNECTION = "connection".getBytes();
+    private static final byte[] ACCEPT_ENCODING = "accept-encoding".getBytes();
+    private static final byte[] IF_NONE_MATCH = "if-none-match".getBytes();
+    private static final byte[] CHUNKED = "chunked".getBytes();
+    private static final byte[] CLOSE = "close".getBytes();
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes();
+    private static final byte[] GZIP = "gzip".getBytes();
+    private static final byte[] DEFLATE = "deflate".getBytes();
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes();
+    private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes();
+    private static final String[] METHODS = { "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH" };
+    private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_BYTES[i] = METHODS[i].getBytes();
+        }
+    }
+
+    private State state = State.HEAD;
+    private byte[] head = new byte[1024];
+    private int headLength;
+    private int lineStart;
+
+    // Request line and the headers the servers act on, recorded as offsets into head
+    private String method;
+    private int targetStart = -1, queryStart, targetEnd;
+    private boolean http11;
+    private int connectionFlags;
+    private int acceptEncoding;
+    private int ifNoneMatchStart, ifNoneMatchEnd;
+    private long contentLength;
+    private boolean chunked;
+
+    private byte[] body;
+    private int bodyLength;
+    private long chunkRemaining;
+
+    // Consumes bytes from the buffer (in read mode) until one request is complete and
+    // returns it; bytes of a following pipelined request are left in the buffer.
+    // Returns null if the buffer ran out first.
+    HttpRequest parse(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            switch (state) {
+                case HEAD:
+                    if (readHead(in)) {
+                        HttpRequest request = finishHead();
+                        if (request != null) return request;
+                    }
+                    break;
+                case BODY: {
+                    int n = (int) Math.min(in.remaining(), contentLength - bodyLength);
+                    in.get(body, bodyLength, n);
+                    bodyLength += n;
+                    if (bodyLength == contentLength) return complete();
+                    break;
+                }
+                case CHUNK_SIZE:
+                    if (readLine(in)) startChunk();
+                    break;
+                case CHUNK_DATA: {
+                    int n = (int) Math.min(in.remaining(), chunkRemaining);
+                    in.get(body, bodyLength, n);
+                    bodyLength += n;
+                    chunkRemaining -= n;
+                    if (chunkRemaining == 0) state = State.CHUNK_END;
+                    break;
+                }
+                case CHUNK_END:
+                    if (readLine(in)) {
+                        headLength = lineStart;
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILER:
+                    if (readLine(in)) {
+                        boolean blank = headLength - lineStart <= 2;
+                        headLength = lineStart;
+                        if (blank) return complete();
+                    }
+                    break;
+            }
+        }
+        return null;
+    }
+
+    // Appends head bytes up to the end of the current line; handles each completed line.
+    // Returns true once the blank line ending the head has been read.
+    private boolean readHead(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            if (!readLine(in)) return false;
+
+            int end = lineEnd();
+            if (end == lineStart) {
+                if (targetStart >= 0) return true;
+                // Tolerate stray CRLF between pipelined requests
+                headLength = lineStart;
+                continue;
+            }
+            if (targetStart < 0) {
+                parseRequestLine(lineStart, end);
+            } else {
+                parseHeader(lineStart, end);
+            }
+            lineStart = headLength;
+        }
+        return false;
+    }
+
+    // Appends bytes to the head buffer until a '\n'; returns true when a line is complete
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            if (headLength == head.length) {
+                if (head.length >= MAX_HEAD_SIZE) throw new IOException("Request head too large");
+                head = Arrays.copyOf(head, head.length * 2);
+            }
+            byte b = in.get();
+            head[headLength++] = b;
+            if (b == '\n') return true;
+        }
+        return false;
+    }
+
+    // End of the current line, excluding the CRLF
+    private int lineEnd() {
+        int end = headLength - 1;
+        if (end > lineStart && head[end - 1] == '\r') end--;
+        return end;
+    }
+
+    private void parseRequestLine(int start, int end) throws IOException {
+        int space1 = indexOf((byte) ' ', start, end);
+        int space2 = space1 < 0 ? -1 : indexOf((byte) ' ', space1 + 1, end);
+        if (space1 <= start || space2 <= space1 + 1) {
+            throw new IOException("Malformed request line");
+        }
+
+        method = null;
+        for (int i = 0; i < METHODS.length && method == null; i++) {
+            if (equalsIgnoreCase(start, space1, METHOD_BYTES[i])) method = METHODS[i];
+        }
+        if (method == null) method = new String(head, start, space1 - start, StandardCharsets.ISO_8859_1);
+
+        targetStart = space1 + 1;
+        targetEnd = space2;
+        int question = indexOf((byte) '?', targetStart, targetEnd);
+        queryStart = question < 0 ? -1 : question + 1;
+
+        if (equalsIgnoreCase(space2 + 1, end, HTTP_1_1)) {
+            http11 = true;
+        } else if (equalsIgnoreCase(space2 + 1, end, HTTP_1_0)) {
+            http11 = false;
+        } else {
+            throw new IOException("Unsupported HTTP version");
+        }
+    }
+
+    private void parseHeader(int start, int end) throws IOException {
+        int colon = indexOf((byte) ':', start, end);
+        if (colon <= start) throw new IOException("Malformed header line");
+
+        int valueStart = colon + 1;
+        while (valueStart < end && (head[valueStart] == ' ' || head[valueStart] == '\t')) valueStart++;
+        int valueEnd = end;
+        while (valueEnd > valueStart && (head[valueEnd - 1] == ' ' || head[valueEnd - 1] == '\t')) valueEnd--;
+
+        if (equalsIgnoreCase(start, colon, CONTENT_LENGTH)) {
+            contentLength = parseDecimal(valueStart, valueEnd);
+        } else if (equalsIgnoreCase(start, colon, TRANSFER_ENCODING)) {
+            chunked = containsToken(valueStart, valueEnd, CHUNKED);
+        } else if (equalsIgnoreCase(start, colon, CONNECTION)) {
+            if (containsToken(valueStart, valueEnd, CLOSE)) connectionFlags |= HttpRequest.CONNECTION_CLOSE;
+            if (containsToken(valueStart, valueEnd, KEEP_ALIVE)) connectionFlags |= HttpRequest.CONNECTION_KEEP_ALIVE;
+        } else if (equalsIgnoreCase(start, colon, ACCEPT_ENCODING)) {
+            if (containsToken(valueStart, valueEnd, GZIP)) acceptEncoding |= HttpRequest.ENCODING_GZIP;
+            if (containsToken(valueStart, valueEnd, DEFLATE)) acceptEncoding |= HttpRequest.ENCODING_DEFLATE;
+        } else if (equalsIgnoreCase(start, colon, IF_NONE_MATCH)) {
+            ifNoneMatchStart = valueStart;
+            ifNoneMatchEnd = valueEnd;
+        }
+    }
+
+    private HttpRequest finishHead() throws IOException {
+        if (chunked) {
+            body = new byte[256];
+            lineStart = headLength;
+            state = State.CHUNK_SIZE;
+            return null;
+        }
+        if (contentLength > MAX_BODY_SIZE) throw new IOException("Request body too large");
+        body = new byte[(int) contentLength];
+        if (contentLength == 0) return complete();
+        state = State.BODY;
+        return null;
+    }
+
+    // Chunk size lines live temporarily past the head; they are dropped once read
+    private void startChunk() throws IOException {
+        int end = lineEnd();
+        int semicolon = indexOf((byte) ';', lineStart, end);
+        long size = parseHex(lineStart, semicolon < 0 ? end : semicolon);
+        headLength = lineStart;
+
+        if (size == 0) {
+            state = State.TRAILER;
+            return;
+        }
+        if (bodyLength + size > MAX_BODY_SIZE) throw new IOException("Request body too large");
+        if (bodyLength + size > body.length) {
+            body = Arrays.copyOf(body, (int) Math.max(bodyLength + size, body.length * 2L));
+        }
+        chunkRemaining = size;
+        state = State.CHUNK_DATA;
+    }
+
+    private HttpRequest complete() {
+        int headEnd = chunked ? lineStart : headLength;
+        byte[] requestBody = body.length == bodyLength ? body : Arrays.copyOf(body, bodyLength);
+        HttpRequest request = new HttpRequest(method, Arrays.copyOf(head, headEnd), targetStart, queryStart, targetEnd,
+                http11, connectionFlags, acceptEncoding, ifNoneMatchStart, ifNoneMatchEnd, requestBody);
+        reset();
+        return request;
+    }
+
+    private void reset() {
+        state = State.HEAD;
+        headLength = 0;
+        lineStart = 0;
+        method = null;
+        targetStart = -1;
+        connectionFlags = 0;
+        acceptEncoding = 0;
+        ifNoneMatchStart = ifNoneMatchEnd = 0;
+        contentLength = 0;
+        chunked = false;
+        body = null;
+        bodyLength = 0;
+        chunkRemaining = 0;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (head[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, byte[] lowerCase) {
+        if (end - start != lowerCase.length) return false;
+        for (int i = 0; i < lowerCase.length; i++) {
+            if (Character.toLowerCase(head[start + i]) != Character.toLowerCase(lowerCase[i])) return false;
+        }
+        return true;
+    }
+
+    // True if the comma-separated value contains the token (parameters such as ;q= ignored,
+    // except q=0 which explicitly refuses it)
+    private boolean containsToken(int start, int end, byte[] token) {
+        int i = start;
+        while (i < end) {
+            while (i < end && (head[i] == ' ' || head[i] == ',')) i++;
+            int tokenEnd = i;
+            while (tokenEnd < end && head[tokenEnd] != ',' && head[tokenEnd] != ';' && head[tokenEnd] != ' ') tokenEnd++;
+            int itemEnd = indexOf((byte) ',', tokenEnd, end);
+            if (itemEnd < 0) itemEnd = end;
+            if (equalsIgnoreCase(i, tokenEnd, token) && !refused(tokenEnd, itemEnd)) return true;
+            i = itemEnd + 1;
+        }
+        return false;
+    }
+
+    private boolean refused(int paramsStart, int paramsEnd) {
+        int q = paramsStart;
+        while (q + 2 < paramsEnd && !((head[q] == 'q' || head[q] == 'Q') && head[q + 1] == '=')) q++;
+        if (q + 2 >= paramsEnd) return false;
+        for (int i = q + 2; i < paramsEnd; i++) {
+            byte b = head[i];
+            if (b >= '1' && b <= '9') return false;
+        }
+        return true;
+    }
+
+    private long parseDecimal(int start, int end) throws IOException {
+        if (start == end) throw new IOException("Bad Content-Length");
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = head[i];
+            if (b < '0' || b > '9' || value > MAX_BODY_SIZE) throw new IOException("Bad Content-Length");
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private long parseHex(int start, int end) throws IOException {
+        while (end > start && head[end - 1] == ' ') end--;
+        if (start == end) throw new IOException("Bad chunk size");
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(head[i], 16);
+            if (digit < 0 || value > MAX_BODY_SIZE) throw new IOException("Bad chunk size");
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+}
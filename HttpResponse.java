@@ -0,0 +1,168 @@
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// HTTP response built by route handlers; the server adds the framing headers
+// (Content-Length, Connection) when it writes the response out. The body is either
+// in memory, a region of an open file that the server transfers without copying, or
+// a ChunkSource the server pulls from as the socket drains (chunked encoding).
+class HttpResponse {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int status;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final byte[] body;
+    private FileChannel file;
+    private long filePosition, fileCount;
+    private ChunkSource stream;
+    private boolean headOnly;
+    private boolean reusable;
+
+    public HttpResponse(int status, String contentType, byte[] body) {
+        this.status = status;
+        this.body = body;
+        headers.put("Content-Type", contentType);
+    }
+
+    public static HttpResponse html(String html) {
+        return html(200, html);
+    }
+
+    public static HttpResponse html(int status, String html) {
+        return new HttpResponse(status, "text/html; charset=UTF-8", html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Already rendered UTF-8 markup, e.g. from a Template
+    public static HttpResponse html(byte[] html) {
+        return new HttpResponse(200, "text/html; charset=UTF-8", html);
+    }
+
+    public static HttpResponse json(String json) {
+        return json(200, json);
+    }
+
+    public static HttpResponse json(int status, String json) {
+        return new HttpResponse(status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Body is count bytes of the file starting at position; the channel stays open
+    public static HttpResponse file(int status, String contentType, FileChannel file, long position, long count) {
+        HttpResponse response = new HttpResponse(status, contentType, EMPTY);
+        response.file = file;
+        response.filePosition = position;
+        response.fileCount = count;
+        return response;
+    }
+
+    // Body of unknown length produced on demand; sent chunked to HTTP/1.1 clients
+    public static HttpResponse stream(int status, String contentType, ChunkSource stream) {
+        HttpResponse response = new HttpResponse(status, contentType, EMPTY);
+        response.stream = stream;
+        return response;
+    }
+
+    // Load-shedding answer: tells the client to back off and retry
+    public static HttpResponse serviceUnavailable(String message) {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", false).field("message", message).endObject();
+        return json.toResponse(503).header("Retry-After", "1");
+    }
+
+    public HttpResponse header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    // Answer to a HEAD request: same headers and Content-Length, no body
+    public HttpResponse headOnly() {
+        this.headOnly = true;
+        return this;
+    }
+
+    // Marks the body as served again unchanged (a cached page), so derived forms of it,
+    // such as the compressed body, may be cached against it too
+    public HttpResponse reusable() {
+        this.reusable = true;
+        return this;
+    }
+
+    // Same status and headers over another body, e.g. the compressed one. A copy, since
+    // cached responses are shared between requests and must not change.
+    public HttpResponse withBody(byte[] body) {
+        HttpResponse copy = new HttpResponse(status, headers.get("Content-Type"), body);
+        copy.headers.putAll(headers);
+        return copy;
+    }
+
+    public HttpResponse withStream(ChunkSource stream) {
+        HttpResponse copy = withBody(EMPTY);
+        copy.stream = stream;
+        return copy;
+    }
+
+    public int getStatus() { return status; }
+    public String getHeader(String name) { return headers.get(name); }
+    public boolean isReusable() { return reusable; }
+    public boolean isHeadOnly() { return headOnly; }
+    // In-memory body to send after the head (empty for HEAD answers and file bodies)
+    public byte[] getBody() { return headOnly ? EMPTY : body; }
+
+    // File region still to be sent after the head, or null for in-memory bodies
+    public FileChannel getFile() { return headOnly ? null : file; }
+    public long getFilePosition() { return filePosition; }
+    public long getFileCount() { return fileCount; }
+    public ChunkSource getStream() { return headOnly ? null : stream; }
+    public boolean isStreamed() { return stream != null; }
+
+    // Serializes status line and headers; keepAlive decides the Connection header and
+    // chunked the framing of streamed bodies (without it they end when the connection closes).
+    // The body is written after it as is, so cached bodies are never copied.
+    public byte[] headBytes(boolean keepAlive, int keepAliveTimeoutSeconds, boolean chunked) {
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reasonPhrase(status)).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (stream != null) {
+            if (chunked) head.append("Transfer-Encoding: chunked\r\n");
+        } else if (status != 204 && status != 304) {
+            long length = file != null ? fileCount : body.length;
+            head.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (keepAlive) {
+            head.append("Connection: keep-alive\r\n");
+            head.append("Keep-Alive: timeout=").append(keepAliveTimeoutSeconds).append("\r\n");
+        } else {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 416: return "Range Not Satisfiable";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return status < 400 ? "OK" : "Error";
+        }
+    }
+}
+
+// Pull-based body for HttpResponse.stream: the server calls fill whenever the previous
+// piece has been written, so a slow client never makes the producer run ahead
+interface ChunkSource {
+    // Appends the next piece of the body to out; returns false once the body is complete
+    boolean fill(HtmlBuffer out);
+}
@@ -1,23 +1,43 @@
 import java.io.*;
-import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.time.Duration;
 import java.time.LocalDate;
 
 public class IntegratedServer {
     private static CarService carService = new CarService();
     private static UserService userService = new UserService();
     private static BookingService bookingService = new BookingService();
+    private static AdaptiveLimit limit;
+    // The page's inline CSS and JS move to /bundles under content-hashed names at startup
+    private static final AssetBundles bundles = new AssetBundles("/bundles/");
+    private static final byte[] homePage = bundles.extract(homePageHtml()).getBytes(StandardCharsets.UTF_8);
     
     public static void main(String[] args) throws IOException {
         initializeData();
         
-        ServerSocket server = new ServerSocket(9999);
+        HttpHandler handler = new CompressionHandler(createRouter());
+        List<String> options = Arrays.asList(args);
+        
         System.out.println("🚗 Drive Now Server started at http://localhost:9999");
         System.out.println("✅ Frontend and Backend integrated successfully!");
         
-        while (true) {
-            Socket client = server.accept();
-            new Thread(() -> handleRequest(client)).start();
+        // --virtual-threads [maxInFlight]: one virtual thread per connection, for blocking handlers.
+        // Either way the in-flight limit adapts to observed latency; maxInFlight is only its ceiling.
+        if (options.contains("--virtual-threads")) {
+            int index = options.indexOf("--virtual-threads");
+            int maxInFlight = index + 1 < args.length && args[index + 1].matches("\\d+")
+                    ? Integer.parseInt(args[index + 1]) : 10_000;
+            if (options.contains("--trace-pinning")) {
+                VirtualThreadServer.enablePinningDiagnostics(Duration.ofMillis(20));
+            }
+            limit = new AdaptiveLimit(Math.min(100, maxInFlight), maxInFlight);
+            System.out.println("🧵 Virtual-thread mode, up to " + maxInFlight + " requests in flight");
+            new VirtualThreadServer(9999, limit, handler).start();
+        } else {
+            limit = new AdaptiveLimit(16, 800);
+            new EventLoopServer(9999, handler, new WorkerPool("web-worker", 16, 256, limit)).start();
         }
     }
     
@@ -35,46 +55,24 @@ public class IntegratedServer {
         userService.addUser(new User(2, "user", "user", "USER", "user@drivenow.com"));
     }
     
-    private static void handleRequest(Socket client) {
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-            PrintWriter out = new PrintWriter(client.getOutputStream());
-            
-            String requestLine = in.readLine();
-            if (requestLine == null) return;
-            
-            String[] parts = requestLine.split(" ");
-            String method = parts[0];
-            String path = parts[1];
-            
-            // Skip headers
-            String line;
-            while ((line = in.readLine()) != null && !line.isEmpty()) {}
-            
-            if (path.equals("/") || path.equals("/index.html")) {
-                serveHomePage(out);
-            } else if (path.equals("/api/cars")) {
-                serveCarsAPI(out);
-            } else if (path.equals("/api/login")) {
-                serveLoginAPI(out);
-            } else if (path.equals("/api/booking")) {
-                serveBookingAPI(out);
-            } else {
-                serve404(out);
-            }
-            
-            client.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static Router createRouter() {
+        return new Router()
+                .all("/", request -> serveHomePage())
+                .all("/index.html", request -> serveHomePage())
+                .all("/api/cars", IntegratedServer::serveCarsAPI)
+                .all("/api/login", request -> serveLoginAPI())
+                .all("/api/booking", request -> serveBookingAPI())
+                .get("/bundles/{file}", bundles)
+                .get("/api/metrics", request -> serveMetricsAPI())
+                .notFound(request -> serve404());
     }
     
-    private static void serveHomePage(PrintWriter out) {
-        String html = """
-            HTTP/1.1 200 OK
-            Content-Type: text/html
-            Connection: close
-            
+    private static HttpResponse serveHomePage() {
+        return HttpResponse.html(homePage).reusable();
+    }
+    
+    private static String homePageHtml() {
+        return """
             <!DOCTYPE html>
             <html lang="en">
             <head>
@@ -345,75 +343,82 @@ public class IntegratedServer {
             </body>
             </html>
             """;
-        
-        out.print(html);
-        out.flush();
     }
     
-    private static void serveCarsAPI(PrintWriter out) {
-        List<Car> allCars = carService.getAllCars();
-        StringBuilder json = new StringBuilder();
-        json.append("{\"success\": true, \"cars\": [");
-        
-        for (int i = 0; i < allCars.size(); i++) {
-            Car car = allCars.get(i);
-            json.append("{");
-            json.append("\"id\": ").append(car.getId()).append(",");
-            json.append("\"model\": \"").append(car.getModel()).append("\",");
-            json.append("\"type\": \"").append(car.getType()).append("\",");
-            json.append("\"rentPerDay\": ").append(car.getRentPerDay()).append(",");
-            json.append("\"location\": \"").append(car.getLocation()).append("\",");
-            json.append("\"available\": ").append(car.isAvailable());
-            json.append("}");
-            if (i < allCars.size() - 1) json.append(",");
+    // loadCars() fetches this on every page load; with the fleet version as ETag and
+    // no-cache, the browser revalidates and an unchanged fleet comes back as a bodiless 304
+    private static HttpResponse serveCarsAPI(HttpRequest request) {
+        String etag = "\"" + carService.getVersion() + "\"";
+        if (request.ifNoneMatch(etag)) {
+            return new HttpResponse(304, "application/json", new byte[0])
+                    .header("ETag", etag)
+                    .header("Cache-Control", "no-cache")
+                    .header("Access-Control-Allow-Origin", "*");
         }
         
-        json.append("]}");
-        
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: application/json\r\n" +
-                         "Access-Control-Allow-Origin: *\r\n" +
-                         "Connection: close\r\n\r\n" +
-                         json.toString();
-        
-        out.print(response);
-        out.flush();
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).name("cars").beginArray();
+        for (Car car : carService.getAllCars()) {
+            json.beginObject()
+                    .field("id", car.getId())
+                    .field("model", car.getModel())
+                    .field("type", car.getType())
+                    .field("rentPerDay", car.getRentPerDay())
+                    .field("location", car.getLocation())
+                    .field("available", car.isAvailable())
+                    .endObject();
+        }
+        json.endArray().endObject();
+        return json.toResponse(200)
+                .header("ETag", etag)
+                .header("Cache-Control", "no-cache")
+                .header("Access-Control-Allow-Origin", "*");
+    }
+    
+    private static HttpResponse serveLoginAPI() {
+        return messageResponse("Login endpoint available");
     }
     
-    private static void serveLoginAPI(PrintWriter out) {
-        String json = "{\"success\": true, \"message\": \"Login endpoint available\"}";
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: application/json\r\n" +
-                         "Connection: close\r\n\r\n" + json;
-        out.print(response);
-        out.flush();
+    private static HttpResponse serveBookingAPI() {
+        return messageResponse("Booking created");
     }
     
-    private static void serveBookingAPI(PrintWriter out) {
-        String json = "{\"success\": true, \"message\": \"Booking created\"}";
-        String response = "HTTP/1.1 200 OK\r\n" +
-                         "Content-Type: application/json\r\n" +
-                         "Connection: close\r\n\r\n" + json;
-        out.print(response);
-        out.flush();
+    private static HttpResponse serveMetricsAPI() {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject()
+                .field("success", true)
+                .field("limit", limit.getLimit())
+                .field("inFlight", limit.getInFlight())
+                .field("minRttMicros", limit.getMinRttMicros())
+                .endObject();
+        return json.toResponse(200);
     }
     
-    private static void serve404(PrintWriter out) {
-        String response = "HTTP/1.1 404 Not Found\r\n" +
-                         "Content-Type: text/html\r\n" +
-                         "Connection: close\r\n\r\n" +
-                         "<h1>404 - Page Not Found</h1>";
-        out.print(response);
-        out.flush();
+    private static HttpResponse messageResponse(String message) {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).field("message", message).endObject();
+        return json.toResponse(200);
+    }
+    
+    private static HttpResponse serve404() {
+        return HttpResponse.html(404, "<h1>404 - Page Not Found</h1>");
     }
 }
 
 // Services and Models (simplified)
 class CarService {
     private List<Car> cars = new ArrayList<>();
+    // Bumped by every change and sent as the cars API's ETag; starting from the clock keeps
+    // versions from before a restart older than any issued after it
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
     
     public List<Car> getAllCars() { return new ArrayList<>(cars); }
-    public boolean addCar(Car car) { return cars.add(car); }
+    public long getVersion() { return version.get(); }
+    
+    public boolean addCar(Car car) {
+        version.incrementAndGet();
+        return cars.add(car);
+    }
 }
 
 class UserService {
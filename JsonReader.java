@@ -0,0 +1,200 @@
+import java.util.*;
+
+// Small JSON parser for request bodies. Objects become LinkedHashMap<String, Object>, arrays
+// ArrayList<Object>, integers Long, other numbers Double, and true/false/null the Java
+// equivalents. Malformed input throws IllegalArgumentException naming the offset.
+//
+//   Map<String, Object> body = JsonReader.parseObject(request.getBodyAsString());
+class JsonReader {
+    private static final int MAX_DEPTH = 64;
+
+    private final String json;
+    private int position;
+    private int depth;
+
+    private JsonReader(String json) {
+        this.json = json;
+    }
+
+    public static Object parse(String json) {
+        JsonReader reader = new JsonReader(json);
+        Object value = reader.value();
+        reader.skipWhitespace();
+        if (reader.position != json.length()) throw reader.error("Unexpected trailing content");
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String json) {
+        Object value = parse(json);
+        if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+        return (Map<String, Object>) value;
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (position >= json.length()) throw error("Unexpected end of input");
+        char c = json.charAt(position);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        enter();
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            depth--;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw error("Expected a field name");
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            object.put(name, value());
+            skipWhitespace();
+            char next = next();
+            if (next == '}') break;
+            if (next != ',') throw error("Expected ',' or '}'");
+        }
+        depth--;
+        return object;
+    }
+
+    private List<Object> array() {
+        enter();
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            depth--;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            skipWhitespace();
+            char next = next();
+            if (next == ']') break;
+            if (next != ',') throw error("Expected ',' or ']'");
+        }
+        depth--;
+        return array;
+    }
+
+    private String string() {
+        position++;
+        StringBuilder value = null;
+        int start = position;
+        while (true) {
+            if (position >= json.length()) throw error("Unterminated string");
+            char c = json.charAt(position);
+            if (c == '"') break;
+            if (c < 0x20) throw error("Control character in string");
+            if (c != '\\') {
+                position++;
+                continue;
+            }
+            if (value == null) value = new StringBuilder();
+            value.append(json, start, position);
+            position++;
+            char escape = next();
+            switch (escape) {
+                case '"': case '\\': case '/': value.append(escape); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (position + 4 > json.length()) throw error("Bad \\u escape");
+                    try {
+                        value.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad \\u escape");
+                    }
+                    position += 4;
+                    break;
+                default: throw error("Bad escape '\\" + escape + "'");
+            }
+            start = position;
+        }
+        String result = value == null
+                ? json.substring(start, position)
+                : value.append(json, start, position).toString();
+        position++;
+        return result;
+    }
+
+    private Object number() {
+        int start = position;
+        boolean integral = true;
+        if (peek() == '-') position++;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c >= '0' && c <= '9') {
+                position++;
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integral = false;
+                position++;
+            } else {
+                break;
+            }
+        }
+        String text = json.substring(start, position);
+        try {
+            if (integral && text.length() < 19) return Long.parseLong(text);
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw error("Bad number '" + text + "'");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!json.startsWith(word, position)) throw error("Unexpected token");
+        position += word.length();
+        return value;
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) throw error("JSON nested too deeply");
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("Expected '" + c + "'");
+    }
+
+    private char peek() {
+        return position < json.length() ? json.charAt(position) : '\0';
+    }
+
+    private char next() {
+        if (position >= json.length()) throw error("Unexpected end of input");
+        return json.charAt(position++);
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') break;
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
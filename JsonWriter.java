@@ -0,0 +1,277 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compact JSON encoder writing UTF-8 straight into a pooled ByteBuffer. Strings are
+// escaped, commas are tracked per nesting level, and the only allocation per response
+// is the final exactly-sized body array.
+//
+//   JsonWriter json = JsonWriter.acquire();
+//   json.beginObject().field("success", true).name("data").beginArray();
+//   for (Car car : cars) writeCar(json, car);
+//   byte[] body = json.endArray().endObject().finish();
+class JsonWriter {
+    private static final BufferPool POOL = new BufferPool(16 * 1024, 256);
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final int MAX_DEPTH = 64;
+
+    // Encoding works on the pooled buffer's backing array; bytes/count are its contents
+    private final ByteBuffer pooled;
+    private byte[] bytes;
+    private int count;
+    // Bit n is set once the container at depth n holds an element, so the next one needs a comma
+    private long hasElements;
+    private int depth;
+    private boolean afterName;
+
+    private JsonWriter(ByteBuffer pooled) {
+        this.pooled = pooled;
+        this.bytes = pooled.array();
+    }
+
+    public static JsonWriter acquire() {
+        return new JsonWriter(POOL.acquire());
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        put((byte) '{');
+        return push();
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        afterName = false;
+        put((byte) '}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        put((byte) '[');
+        return push();
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        afterName = false;
+        put((byte) ']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        writeString(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    // Same digits as Double.toString, e.g. 1800.0; NaN and infinities have no JSON form
+    public JsonWriter value(double value) {
+        beforeValue();
+        writeAscii(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    // An already encoded JSON value, e.g. a cached fragment
+    public JsonWriter rawValue(byte[] json) {
+        beforeValue();
+        ensure(json.length);
+        System.arraycopy(json, 0, bytes, count, json.length);
+        count += json.length;
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) { return name(name).value(value); }
+    public JsonWriter field(String name, long value) { return name(name).value(value); }
+    public JsonWriter field(String name, double value) { return name(name).value(value); }
+    public JsonWriter field(String name, boolean value) { return name(name).value(value); }
+
+    // Copies out the document and returns the buffer to the pool; the writer is done after this
+    public byte[] finish() {
+        byte[] document = Arrays.copyOf(bytes, count);
+        POOL.release(pooled);
+        bytes = null;
+        return document;
+    }
+
+    public HttpResponse toResponse(int status) {
+        return new HttpResponse(status, "application/json", finish());
+    }
+
+    private JsonWriter push() {
+        if (++depth >= MAX_DEPTH) throw new IllegalStateException("JSON nested too deeply");
+        hasElements &= ~(1L << depth);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((hasElements & bit) != 0) {
+            put((byte) ',');
+        } else {
+            hasElements |= bit;
+        }
+    }
+
+    private void writeString(String s) {
+        ensure(s.length() + 2);
+        bytes[count++] = '"';
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                ensure(2);
+                bytes[count++] = '\\';
+                bytes[count++] = (byte) c;
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                writeEscapedControl(c);
+            } else if (c < 0x80) {
+                put((byte) c);
+            } else {
+                i = writeUtf8(s, i);
+            }
+        }
+        put((byte) '"');
+    }
+
+    // U+2028/2029 are legal in JSON but end a line in older JavaScript, so they are escaped too
+    private void writeEscapedControl(char c) {
+        switch (c) {
+            case '\n': writeAscii("\\n"); break;
+            case '\r': writeAscii("\\r"); break;
+            case '\t': writeAscii("\\t"); break;
+            case '\b': writeAscii("\\b"); break;
+            case '\f': writeAscii("\\f"); break;
+            default:
+                ensure(6);
+                bytes[count++] = '\\';
+                bytes[count++] = 'u';
+                bytes[count++] = HEX[c >> 12];
+                bytes[count++] = HEX[c >> 8 & 0xF];
+                bytes[count++] = HEX[c >> 4 & 0xF];
+                bytes[count++] = HEX[c & 0xF];
+        }
+    }
+
+    // Encodes the non-ASCII char at i (with its low surrogate); returns the last index consumed
+    private int writeUtf8(String s, int i) {
+        ensure(4);
+        char c = s.charAt(i);
+        if (c < 0x800) {
+            bytes[count++] = (byte) (0xC0 | c >> 6);
+            bytes[count++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            bytes[count++] = (byte) (0xF0 | cp >> 18);
+            bytes[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+            bytes[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+            bytes[count++] = (byte) (0x80 | cp & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+            bytes[count++] = '?';
+        } else {
+            bytes[count++] = (byte) (0xE0 | c >> 12);
+            bytes[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+            bytes[count++] = (byte) (0x80 | c & 0x3F);
+        }
+        return i;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            bytes[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            bytes[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // Digits went in least significant first; reverse them in place
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+    }
+
+    private void writeAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            bytes[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        bytes[count++] = b;
+    }
+
+    // Documents larger than a pooled buffer move to a bigger, unpooled array
+    private void ensure(int extra) {
+        if (count + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+        }
+    }
+}
+
+// Fixed-size heap buffers recycled across requests; at most maxPooled are kept idle
+class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) return ByteBuffer.allocate(bufferSize);
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
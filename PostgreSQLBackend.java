@@ -128,6 +128,8 @@ class PostgreSQLManager {
         String createIndexes = """
             CREATE INDEX IF NOT EXISTS idx_cars_type ON cars(type);
             CREATE INDEX IF NOT EXISTS idx_cars_available ON cars(available);
+            CREATE INDEX IF NOT EXISTS idx_cars_type_price ON cars(type, rent_per_day, id) WHERE available;
+            CREATE INDEX IF NOT EXISTS idx_cars_type_location_price ON cars(type, location, rent_per_day, id) WHERE available;
             CREATE INDEX IF NOT EXISTS idx_bookings_user ON bookings(user_id);
             CREATE INDEX IF NOT EXISTS idx_bookings_dates ON bookings(start_date, end_date);
         """;
@@ -143,13 +145,34 @@ class PostgreSQLManager {
     public static Connection getConnection() throws SQLException {
         return DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
     }
+    
+    // Columns for a projected query: id always (it is the page cursor), then the columns of
+    // the requested fields; null fields means all of them
+    static Set<String> selectColumns(Collection<String> fields, Map<String, String> columnsByField) {
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add("id");
+        for (String field : fields == null ? columnsByField.keySet() : fields) {
+            String column = columnsByField.get(field);
+            if (column == null) throw new IllegalArgumentException("Unknown field: " + field);
+            columns.add(column);
+        }
+        return columns;
+    }
 }
 
 // Data Access Objects for PostgreSQL
 class CarDAO {
+    private static final String COLUMNS = "id, model, type, rent_per_day, location, available";
+    private static final Map<String, String> FIELD_COLUMNS = Map.of(
+            "model", "model",
+            "type", "type",
+            "rentPerDay", "rent_per_day",
+            "location", "location",
+            "available", "available");
+    
     public List<Car> getAllCars() {
         List<Car> cars = new ArrayList<>();
-        String sql = "SELECT * FROM cars ORDER BY id";
+        String sql = "SELECT " + COLUMNS + " FROM cars ORDER BY id";
         
         try (Connection conn = PostgreSQLManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
@@ -172,7 +195,7 @@ class CarDAO {
     }
     
     public Car getCarById(int id) {
-        String sql = "SELECT * FROM cars WHERE id = ?";
+        String sql = "SELECT " + COLUMNS + " FROM cars WHERE id = ?";
         
         try (Connection conn = PostgreSQLManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -235,9 +258,10 @@ class CarDAO {
         return false;
     }
     
+    // Available cars of a type, cheapest first: read in order from idx_cars_type_price, no sort
     public List<Car> getCarsByType(String type) {
         List<Car> cars = new ArrayList<>();
-        String sql = "SELECT * FROM cars WHERE type = ? AND available = true ORDER BY rent_per_day";
+        String sql = "SELECT " + COLUMNS + " FROM cars WHERE type = ? AND available = true ORDER BY rent_per_day";
         
         try (Connection conn = PostgreSQLManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -260,6 +284,103 @@ class CarDAO {
         }
         return cars;
     }
+    
+    // The n cheapest available cars of a type in a location, straight off the front of
+    // idx_cars_type_location_price, so the cost follows n rather than the fleet size
+    public List<Car> getCheapestCars(String type, String location, int n) {
+        List<Car> cars = new ArrayList<>();
+        String sql = "SELECT " + COLUMNS + " FROM cars WHERE type = ? AND location = ? AND available = true"
+                + " ORDER BY rent_per_day, id LIMIT ?";
+        
+        try (Connection conn = PostgreSQLManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setString(1, type);
+            stmt.setString(2, location);
+            stmt.setInt(3, n);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                cars.add(new Car(
+                    rs.getInt("id"),
+                    rs.getString("model"),
+                    rs.getString("type"),
+                    rs.getDouble("rent_per_day"),
+                    rs.getString("location"),
+                    rs.getBoolean("available")
+                ));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting cheapest cars: " + e.getMessage());
+        }
+        return cars;
+    }
+    
+    // Keyset page: up to limit cars with ids above afterId, walked along the primary key
+    // index, so page n costs the same as page 1. Only the columns of the named fields are
+    // read (null for all); the rest are left null, 0 or false in the returned cars.
+    public List<Car> getCarsPage(int afterId, int limit, Collection<String> fields) {
+        List<Car> cars = new ArrayList<>();
+        Set<String> columns = PostgreSQLManager.selectColumns(fields, FIELD_COLUMNS);
+        String sql = "SELECT " + String.join(", ", columns) + " FROM cars WHERE id > ? ORDER BY id LIMIT ?";
+        
+        try (Connection conn = PostgreSQLManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                cars.add(new Car(
+                    rs.getInt("id"),
+                    columns.contains("model") ? rs.getString("model") : null,
+                    columns.contains("type") ? rs.getString("type") : null,
+                    columns.contains("rent_per_day") ? rs.getDouble("rent_per_day") : 0,
+                    columns.contains("location") ? rs.getString("location") : null,
+                    columns.contains("available") && rs.getBoolean("available")
+                ));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting cars page: " + e.getMessage());
+        }
+        return cars;
+    }
+    
+    // The cars with the given ids in one round trip rather than one query per id, in the
+    // order asked for; ids with no car are left out
+    public List<Car> getCarsByIds(List<Integer> ids) {
+        if (ids.isEmpty()) return new ArrayList<>();
+        Map<Integer, Car> found = new HashMap<>();
+        String sql = "SELECT " + COLUMNS + " FROM cars WHERE id = ANY(?)";
+        
+        try (Connection conn = PostgreSQLManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setArray(1, conn.createArrayOf("integer", ids.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                found.put(rs.getInt("id"), new Car(
+                    rs.getInt("id"),
+                    rs.getString("model"),
+                    rs.getString("type"),
+                    rs.getDouble("rent_per_day"),
+                    rs.getString("location"),
+                    rs.getBoolean("available")
+                ));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting cars by ids: " + e.getMessage());
+        }
+        
+        List<Car> cars = new ArrayList<>(found.size());
+        for (int id : ids) {
+            Car car = found.get(id);
+            if (car != null) cars.add(car);
+        }
+        return cars;
+    }
 }
 
 class UserDAO {
@@ -286,7 +407,7 @@ class UserDAO {
     }
     
     public User authenticate(String username, String password) {
-        String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
+        String sql = "SELECT id, username, password, role, email FROM users WHERE username = ? AND password = ?";
         
         try (Connection conn = PostgreSQLManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -312,6 +433,14 @@ class UserDAO {
 }
 
 class BookingDAO {
+    private static final String COLUMNS = "id, user_id, car_id, start_date, end_date, total_amount";
+    private static final Map<String, String> FIELD_COLUMNS = Map.of(
+            "userId", "user_id",
+            "carId", "car_id",
+            "startDate", "start_date",
+            "endDate", "end_date",
+            "totalAmount", "total_amount");
+    
     public Booking createBooking(int userId, int carId, LocalDate startDate, LocalDate endDate) {
         // First check if car is available
         CarDAO carDAO = new CarDAO();
@@ -355,9 +484,96 @@ class BookingDAO {
         return null;
     }
     
+    // Books a batch in one transaction: the requested cars are locked with a single
+    // SELECT ... FOR UPDATE, every item is checked against them and against earlier items,
+    // then the bookings go in as one batched INSERT and the cars are marked unavailable in
+    // one batched UPDATE. With atomic, any failure rolls back the lot. Outcomes are left on
+    // the requests; returns how many were booked.
+    public int createBookings(List<BookingRequest> requests, boolean atomic) {
+        Integer[] carIds = requests.stream().map(request -> request.carId).distinct().toArray(Integer[]::new);
+        String lockSql = "SELECT id, rent_per_day, available FROM cars WHERE id = ANY(?) FOR UPDATE";
+        String insertSql = "INSERT INTO bookings (user_id, car_id, start_date, end_date, total_amount) VALUES (?, ?, ?, ?, ?)";
+        String updateSql = "UPDATE cars SET available = false WHERE id = ?";
+        
+        try (Connection conn = PostgreSQLManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                Map<Integer, Double> rentByCar = new HashMap<>();
+                Set<Integer> unavailable = new HashSet<>();
+                try (PreparedStatement stmt = conn.prepareStatement(lockSql)) {
+                    stmt.setArray(1, conn.createArrayOf("integer", carIds));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rentByCar.put(rs.getInt("id"), rs.getDouble("rent_per_day"));
+                            if (!rs.getBoolean("available")) unavailable.add(rs.getInt("id"));
+                        }
+                    }
+                }
+                
+                List<BookingRequest> valid = new ArrayList<>();
+                for (BookingRequest request : requests) {
+                    if (!request.endDate.isAfter(request.startDate)) {
+                        request.error = "endDate must be after startDate";
+                    } else if (!rentByCar.containsKey(request.carId)) {
+                        request.error = "Car " + request.carId + " not found";
+                    } else if (!unavailable.add(request.carId)) {
+                        request.error = "Car " + request.carId + " not available";
+                    } else {
+                        valid.add(request);
+                    }
+                }
+                if (valid.isEmpty() || (atomic && valid.size() < requests.size())) {
+                    for (BookingRequest request : valid) {
+                        request.error = "Not booked because another item in the batch failed";
+                    }
+                    conn.rollback();
+                    return 0;
+                }
+                
+                try (PreparedStatement insert = conn.prepareStatement(insertSql, new String[] {"id"});
+                     PreparedStatement update = conn.prepareStatement(updateSql)) {
+                    for (BookingRequest request : valid) {
+                        long days = request.endDate.toEpochDay() - request.startDate.toEpochDay();
+                        insert.setInt(1, request.userId);
+                        insert.setInt(2, request.carId);
+                        insert.setDate(3, java.sql.Date.valueOf(request.startDate));
+                        insert.setDate(4, java.sql.Date.valueOf(request.endDate));
+                        insert.setDouble(5, days * rentByCar.get(request.carId));
+                        insert.addBatch();
+                        update.setInt(1, request.carId);
+                        update.addBatch();
+                    }
+                    insert.executeBatch();
+                    update.executeBatch();
+                    
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        for (BookingRequest request : valid) {
+                            if (!keys.next()) throw new SQLException("Missing generated booking id");
+                            long days = request.endDate.toEpochDay() - request.startDate.toEpochDay();
+                            request.booking = new Booking(keys.getInt(1), request.userId, request.carId,
+                                    request.startDate, request.endDate, days * rentByCar.get(request.carId));
+                        }
+                    }
+                }
+                conn.commit();
+                return valid.size();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error creating bookings: " + e.getMessage());
+            for (BookingRequest request : requests) {
+                request.booking = null;
+                if (request.error == null) request.error = "Booking failed: " + e.getMessage();
+            }
+        }
+        return 0;
+    }
+    
     public List<Booking> getAllBookings() {
         List<Booking> bookings = new ArrayList<>();
-        String sql = "SELECT * FROM bookings ORDER BY created_at DESC";
+        String sql = "SELECT " + COLUMNS + " FROM bookings ORDER BY created_at DESC";
         
         try (Connection conn = PostgreSQLManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
@@ -378,6 +594,37 @@ class BookingDAO {
         }
         return bookings;
     }
+    
+    // Keyset page along the primary key: up to limit bookings with ids above afterId, with
+    // only the named fields read (null for all). Unlike OFFSET, a deep page does not scan
+    // and discard every row before it.
+    public List<Booking> getBookingsPage(int afterId, int limit, Collection<String> fields) {
+        List<Booking> bookings = new ArrayList<>();
+        Set<String> columns = PostgreSQLManager.selectColumns(fields, FIELD_COLUMNS);
+        String sql = "SELECT " + String.join(", ", columns) + " FROM bookings WHERE id > ? ORDER BY id LIMIT ?";
+        
+        try (Connection conn = PostgreSQLManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                bookings.add(new Booking(
+                    rs.getInt("id"),
+                    columns.contains("user_id") ? rs.getInt("user_id") : 0,
+                    columns.contains("car_id") ? rs.getInt("car_id") : 0,
+                    columns.contains("start_date") ? rs.getDate("start_date").toLocalDate() : null,
+                    columns.contains("end_date") ? rs.getDate("end_date").toLocalDate() : null,
+                    columns.contains("total_amount") ? rs.getDouble("total_amount") : 0
+                ));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting bookings page: " + e.getMessage());
+        }
+        return bookings;
+    }
 }
 
 // Model Classes
@@ -445,4 +692,21 @@ class Booking {
         return String.format("Booking{id=%d, userId=%d, carId=%d, dates=%s to %s (%d days), amount=₹%.0f}",
                 id, userId, carId, startDate, endDate, days, totalAmount);
     }
-}
\ No newline at end of file
+}
+
+// One item of a batch booking: what was asked for, and either the booking or why not
+class BookingRequest {
+    final int userId;
+    final int carId;
+    final LocalDate startDate;
+    final LocalDate endDate;
+    Booking booking;
+    String error;
+    
+    public BookingRequest(int userId, int carId, LocalDate startDate, LocalDate endDate) {
+        this.userId = userId;
+        this.carId = carId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+}
@@ -1,30 +1,57 @@
 import java.io.*;
-import java.net.*;
+import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.util.List;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.BiConsumer;
 
 // REST API Server
 public class RestAPI {
     private static CarService carService = new CarService();
     private static UserService userService = new UserService();
-    private static BookingService bookingService = new BookingService();
+    private static BookingService bookingService = new BookingService(carService);
+    private static WorkerPool workerPool = new WorkerPool("api-worker", 32, 256, new AdaptiveLimit(32, 800));
+    // Pages for ?after=<id>&limit=<n>; bookings are always paged, cars only when asked
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 500;
+    // What ?fields=a,b can name, and how each one is written
+    private static final Map<String, BiConsumer<JsonWriter, Car>> CAR_FIELDS = Map.of(
+            "id", (json, car) -> json.field("id", car.getId()),
+            "model", (json, car) -> json.field("model", car.getModel()),
+            "type", (json, car) -> json.field("type", car.getType()),
+            "rentPerDay", (json, car) -> json.field("rentPerDay", car.getRentPerDay()),
+            "location", (json, car) -> json.field("location", car.getLocation()),
+            "available", (json, car) -> json.field("available", car.isAvailable()));
+    private static final Map<String, BiConsumer<JsonWriter, Booking>> BOOKING_FIELDS = Map.of(
+            "id", (json, booking) -> json.field("id", booking.getId()),
+            "userId", (json, booking) -> json.field("userId", booking.getUserId()),
+            "carId", (json, booking) -> json.field("carId", booking.getCarId()),
+            "startDate", (json, booking) -> json.field("startDate", booking.getStartDate().toString()),
+            "endDate", (json, booking) -> json.field("endDate", booking.getEndDate().toString()),
+            "totalAmount", (json, booking) -> json.field("totalAmount", booking.getTotalAmount()),
+            "status", (json, booking) -> json.field("status", booking.getStatus()));
     
     public static void main(String[] args) throws IOException {
         initializeData();
         
-        ServerSocket server = new ServerSocket(9090);
+        EventLoopServer server = new EventLoopServer(9090, new CompressionHandler(createRouter()), workerPool);
         System.out.println("Car Rental API Server started on http://localhost:9090");
         System.out.println("Available endpoints:");
-        System.out.println("GET /api/cars - Get all cars");
+        System.out.println("GET /api/cars - Get all cars (?ids=1,5,9 for just those)");
         System.out.println("GET /api/cars/available - Get available cars");
+        System.out.println("GET /api/cars/search?type=&location=&minPrice=&maxPrice=&available=&startDate=&endDate=&sort=price - Filter cars");
+        System.out.println("GET /api/cars/{id} - Get car by id");
+        System.out.println("GET /api/cars/{id}/availability?startDate=&endDate= - Is the car free for those dates");
         System.out.println("POST /api/auth/login - User login");
         System.out.println("POST /api/bookings - Create booking");
+        System.out.println("POST /api/bookings/batch - Create many bookings, optionally all-or-nothing");
         System.out.println("GET /api/bookings - Get all bookings");
+        System.out.println("POST /api/bookings/{id}/cancel - Cancel booking");
+        System.out.println("GET /assets/{file} - Car images");
+        System.out.println("GET /api/metrics - Worker pool counters and concurrency limit");
         
-        while (true) {
-            Socket client = server.accept();
-            new Thread(() -> handleRequest(client)).start();
-        }
+        server.start();
     }
     
     private static void initializeData() {
@@ -41,182 +68,556 @@ public class RestAPI {
         userService.addUser(new User(2, "user", "user", "USER", "user@drivenow.com"));
     }
     
-    private static void handleRequest(Socket client) {
+    // Bookings get the HIGH lane and fleet browsing the LOW lane, so a browsing surge is
+    // shed with 503 before it can delay a customer's booking
+    private static Router createRouter() {
+        return new Router()
+                .get("/api/cars", WorkerPool.Priority.LOW, RestAPI::getCarsResponse)
+                .get("/api/cars/available", WorkerPool.Priority.LOW, request -> getAvailableCarsResponse())
+                .get("/api/cars/search", WorkerPool.Priority.LOW, RestAPI::searchCarsResponse)
+                .get("/api/cars/{id:int}", WorkerPool.Priority.LOW, RestAPI::getCarResponse)
+                .get("/api/cars/{id:int}/availability", WorkerPool.Priority.LOW, RestAPI::getCarAvailabilityResponse)
+                .get("/api/bookings", RestAPI::getBookingsResponse)
+                .get("/api/metrics", WorkerPool.Priority.HIGH, request -> getMetricsResponse())
+                .post("/api/auth/login", request -> loginResponse())
+                .post("/api/bookings", WorkerPool.Priority.HIGH, request -> createBookingResponse())
+                .post("/api/bookings/batch", WorkerPool.Priority.HIGH, RestAPI::createBookingsResponse)
+                .post("/api/bookings/{id:int}/cancel", WorkerPool.Priority.HIGH, RestAPI::cancelBookingResponse)
+                .all("/assets/{file}", WorkerPool.Priority.LOW, new StaticFileHandler(Paths.get("."), "file"))
+                .all("/", request -> getHomeResponse())
+                .notFound(request -> get404Response());
+    }
+    
+    private static HttpResponse getMetricsResponse() {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).name("data").beginObject()
+                .field("queued", workerPool.getQueued())
+                .field("active", workerPool.getActive())
+                .field("completed", workerPool.getCompleted())
+                .field("rejected", workerPool.getRejected())
+                .field("limit", workerPool.getLimit().getLimit())
+                .field("inFlight", workerPool.getLimit().getInFlight())
+                .field("minRttMicros", workerPool.getLimit().getMinRttMicros())
+                .endObject().endObject();
+        return jsonResponse(200, json);
+    }
+
+    // The fleet version is the ETag, so polling an unchanged fleet costs a bodiless 304.
+    // ?since=<version> lists only cars added or changed after that version and adds the ids
+    // of removed cars under "removed"; a version this server never issued gets the full list.
+    // Without since, ?after=<id>&limit=<n> pages through the fleet in id order, and
+    // ?ids=1,5,9 fetches just those cars in that order, listing unknown ids under "missing".
+    // ?fields= works with any of these.
+    private static HttpResponse getCarsResponse(HttpRequest request) {
+        // Read before the cars, so the tag never claims more than the body holds
+        long version = carService.getVersion();
+        boolean binary = BinaryWire.accepts(request);
+        String etag = "\"" + version + (binary ? "-bin\"" : "\"");
+        if (request.ifNoneMatch(etag)) {
+            return new HttpResponse(304, "application/json", new byte[0])
+                    .header("ETag", etag)
+                    .header("Cache-Control", "no-cache")
+                    .header("Access-Control-Allow-Origin", "*");
+        }
+        
+        String sinceParam = request.getQueryParam("since");
+        long since;
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-            PrintWriter out = new PrintWriter(client.getOutputStream());
-            
-            String requestLine = in.readLine();
-            if (requestLine == null) return;
-            
-            String[] parts = requestLine.split(" ");
-            String method = parts[0];
-            String path = parts[1];
-            
-            // Read headers
-            String line;
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                // Skip headers for now
+            since = sinceParam == null ? -1 : Long.parseLong(sinceParam);
+        } catch (NumberFormatException e) {
+            return messageResponse(400, false, "since must be a fleet version number");
+        }
+        
+        List<BiConsumer<JsonWriter, Car>> fields;
+        Set<Integer> ids;
+        try {
+            fields = projection(request, CAR_FIELDS);
+            ids = idsParam(request, "ids", MAX_PAGE_SIZE);
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
+        }
+        boolean delta = ids == null && carService.isKnownVersion(since);
+        boolean paged = ids == null && !delta
+                && (request.getQueryParam("after") != null || request.getQueryParam("limit") != null);
+        
+        List<Car> cars;
+        int limit = 0;
+        try {
+            if (ids != null) {
+                cars = carService.getCarsByIds(ids);
+            } else if (paged) {
+                limit = intParam(request, "limit", DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE);
+                cars = carService.getCarsAfter(intParam(request, "after", 0, 0, Integer.MAX_VALUE), limit);
+            } else {
+                cars = delta ? carService.getChangedSince(since) : carService.getAllCars();
+            }
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
+        }
+        if (binary) {
+            return binaryCarsResponse(version, cars, paged && cars.size() == limit,
+                    delta ? carService.getRemovedSince(since) : List.of())
+                    .header("ETag", etag)
+                    .header("Cache-Control", "no-cache");
+        }
+        
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).field("version", version).name("data").beginArray();
+        for (Car car : cars) {
+            writeCar(json, car, fields);
+        }
+        json.endArray();
+        if (paged) {
+            writeNext(json, cars.size() == limit ? cars.get(cars.size() - 1).getId() : -1);
+        }
+        if (delta) {
+            json.name("removed").beginArray();
+            for (int id : carService.getRemovedSince(since)) {
+                json.value(id);
+            }
+            json.endArray();
+        }
+        if (ids != null) {
+            json.name("missing").beginArray();
+            if (cars.size() < ids.size()) {
+                Set<Integer> missing = new LinkedHashSet<>(ids);
+                for (Car car : cars) {
+                    missing.remove(car.getId());
+                }
+                for (int id : missing) {
+                    json.value(id);
+                }
+            }
+            json.endArray();
+        }
+        json.endObject();
+        // no-cache lets browsers keep the body but revalidate it on every fetch
+        return jsonResponse(200, json)
+                .header("ETag", etag)
+                .header("Cache-Control", "no-cache")
+                .header("Vary", "Accept");
+    }
+    
+    private static HttpResponse getAvailableCarsResponse() {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).field("message", "Available cars retrieved").name("data").beginArray();
+        for (Car car : carService.getAvailableCars()) {
+            writeCar(json, car);
+        }
+        json.endArray().endObject();
+        return jsonResponse(200, json);
+    }
+    
+    // The dashboard filters: ?type= (any case), ?location= (part of the name), ?minPrice=,
+    // ?maxPrice= and ?available=true|false, any combination, answered from CarService's
+    // bitmap indexes. ?startDate=&endDate= keeps only cars that can be booked for those
+    // dates (and replaces ?available=). ?sort=price lists cheapest first instead, in pages
+    // of ?limit= with the cursor for the next under "next" to pass back as ?after=.
+    private static HttpResponse searchCarsResponse(HttpRequest request) {
+        List<BiConsumer<JsonWriter, Car>> fields;
+        List<Car> cars;
+        boolean byPrice;
+        int limit = 0;
+        try {
+            fields = projection(request, CAR_FIELDS);
+            String type = request.getQueryParam("type");
+            String location = request.getQueryParam("location");
+            Double minPrice = priceParam(request, "minPrice");
+            Double maxPrice = priceParam(request, "maxPrice");
+            String available = request.getQueryParam("available");
+            if (available != null && !available.equals("true") && !available.equals("false")) {
+                throw new IllegalArgumentException("available must be true or false");
+            }
+            Boolean availableOnly = available == null ? null : Boolean.valueOf(available);
+            String sort = request.getQueryParam("sort");
+            if (sort != null && !sort.equals("price")) {
+                throw new IllegalArgumentException("sort must be price");
             }
             
-            String response = "";
+            LocalDate startDate = null;
+            LocalDate endDate = null;
+            if (request.getQueryParam("startDate") != null || request.getQueryParam("endDate") != null) {
+                startDate = dateParam(request, "startDate");
+                endDate = dateParam(request, "endDate");
+                if (!endDate.isAfter(startDate)) throw new IllegalArgumentException("endDate must be after startDate");
+            }
             
-            // Route handling
-            if (method.equals("GET") && path.equals("/api/cars")) {
-                response = getCarsResponse();
-            } else if (method.equals("GET") && path.equals("/api/cars/available")) {
-                response = getAvailableCarsResponse();
-            } else if (method.equals("GET") && path.equals("/api/bookings")) {
-                response = getBookingsResponse();
-            } else if (method.equals("POST") && path.equals("/api/auth/login")) {
-                response = loginResponse();
-            } else if (method.equals("POST") && path.equals("/api/bookings")) {
-                response = createBookingResponse();
-            } else if (path.equals("/")) {
-                response = getHomeResponse();
+            byPrice = sort != null;
+            long afterKey = Long.MIN_VALUE;
+            if (byPrice) {
+                limit = intParam(request, "limit", DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE);
+                String after = request.getQueryParam("after");
+                try {
+                    if (after != null) afterKey = Long.parseLong(after);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("after must be the next cursor of the previous page");
+                }
+            }
+            if (startDate != null) {
+                cars = bookingService.findAvailableCars(type, location, minPrice, maxPrice, startDate, endDate);
+                if (byPrice) cars = CarService.pageByPrice(cars, afterKey, limit);
+            } else if (byPrice) {
+                cars = carService.getCarsByPrice(type, location, minPrice, maxPrice, availableOnly, afterKey, limit);
             } else {
-                response = get404Response();
+                cars = carService.filterCars(type, location, minPrice, maxPrice, availableOnly);
             }
-            
-            out.print(response);
-            out.flush();
-            client.close();
-            
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
+        }
+        
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).field("count", cars.size()).name("data").beginArray();
+        for (Car car : cars) {
+            writeCar(json, car, fields);
         }
+        json.endArray();
+        if (byPrice) {
+            // A string, since past about 21,000 a day the key is too big for a JavaScript number
+            json.field("next", cars.size() == limit ? String.valueOf(CarService.priceKey(cars.get(cars.size() - 1))) : null);
+        }
+        json.endObject();
+        return jsonResponse(200, json);
     }
     
-    private static String getCarsResponse() {
-        List<Car> cars = carService.getAllCars();
-        StringBuilder json = new StringBuilder();
-        json.append("{\n  \"success\": true,\n  \"data\": [\n");
-        
-        for (int i = 0; i < cars.size(); i++) {
-            Car car = cars.get(i);
-            json.append("    {\n");
-            json.append("      \"id\": ").append(car.getId()).append(",\n");
-            json.append("      \"model\": \"").append(car.getModel()).append("\",\n");
-            json.append("      \"type\": \"").append(car.getType()).append("\",\n");
-            json.append("      \"rentPerDay\": ").append(car.getRentPerDay()).append(",\n");
-            json.append("      \"location\": \"").append(car.getLocation()).append("\",\n");
-            json.append("      \"available\": ").append(car.isAvailable()).append("\n");
-            json.append("    }");
-            if (i < cars.size() - 1) json.append(",");
-            json.append("\n");
+    private static Double priceParam(HttpRequest request, String name) {
+        String value = request.getQueryParam(name);
+        if (value == null) return null;
+        try {
+            double price = Double.parseDouble(value);
+            if (price >= 0 && Double.isFinite(price)) return price;
+        } catch (NumberFormatException e) {
+            // reported below like a negative price
         }
-        
-        json.append("  ]\n}");
-        
-        return "HTTP/1.1 200 OK\r\n" +
-               "Content-Type: application/json\r\n" +
-               "Access-Control-Allow-Origin: *\r\n" +
-               "Connection: close\r\n\r\n" +
-               json.toString();
+        throw new IllegalArgumentException(name + " must be a non-negative number");
     }
     
-    private static String getAvailableCarsResponse() {
-        List<Car> cars = carService.getAvailableCars();
-        StringBuilder json = new StringBuilder();
-        json.append("{\n  \"success\": true,\n  \"message\": \"Available cars retrieved\",\n  \"data\": [\n");
-        
-        for (int i = 0; i < cars.size(); i++) {
-            Car car = cars.get(i);
-            json.append("    {\n");
-            json.append("      \"id\": ").append(car.getId()).append(",\n");
-            json.append("      \"model\": \"").append(car.getModel()).append("\",\n");
-            json.append("      \"type\": \"").append(car.getType()).append("\",\n");
-            json.append("      \"rentPerDay\": ").append(car.getRentPerDay()).append(",\n");
-            json.append("      \"location\": \"").append(car.getLocation()).append("\"\n");
-            json.append("    }");
-            if (i < cars.size() - 1) json.append(",");
-            json.append("\n");
+    private static HttpResponse getCarResponse(HttpRequest request) {
+        Car car = carService.getCarById(request.getIntParam("id"));
+        if (car == null) {
+            return messageResponse(404, false, "Car not found");
         }
         
-        json.append("  ]\n}");
-        
-        return "HTTP/1.1 200 OK\r\n" +
-               "Content-Type: application/json\r\n" +
-               "Access-Control-Allow-Origin: *\r\n" +
-               "Connection: close\r\n\r\n" +
-               json.toString();
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).name("data");
+        writeCar(json, car);
+        json.endObject();
+        return jsonResponse(200, json);
     }
     
-    private static String getBookingsResponse() {
-        List<Booking> bookings = bookingService.getAllBookings();
-        StringBuilder json = new StringBuilder();
-        json.append("{\n  \"success\": true,\n  \"data\": [\n");
-        
-        for (int i = 0; i < bookings.size(); i++) {
-            Booking booking = bookings.get(i);
-            json.append("    {\n");
-            json.append("      \"id\": ").append(booking.getId()).append(",\n");
-            json.append("      \"userId\": ").append(booking.getUserId()).append(",\n");
-            json.append("      \"carId\": ").append(booking.getCarId()).append(",\n");
-            json.append("      \"startDate\": \"").append(booking.getStartDate()).append("\",\n");
-            json.append("      \"endDate\": \"").append(booking.getEndDate()).append("\",\n");
-            json.append("      \"totalAmount\": ").append(booking.getTotalAmount()).append(",\n");
-            json.append("      \"status\": \"").append(booking.getStatus()).append("\"\n");
-            json.append("    }");
-            if (i < bookings.size() - 1) json.append(",");
-            json.append("\n");
+    // Whether the car can be booked from startDate to endDate (the return day), and if not,
+    // the bookings in the way
+    private static HttpResponse getCarAvailabilityResponse(HttpRequest request) {
+        int carId = request.getIntParam("id");
+        if (carService.getCarById(carId) == null) {
+            return messageResponse(404, false, "Car not found");
+        }
+        LocalDate startDate;
+        LocalDate endDate;
+        try {
+            startDate = dateParam(request, "startDate");
+            endDate = dateParam(request, "endDate");
+            if (!endDate.isAfter(startDate)) throw new IllegalArgumentException("endDate must be after startDate");
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
         }
         
-        json.append("  ]\n}");
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).name("data").beginObject()
+                .field("carId", carId)
+                .field("startDate", startDate.toString())
+                .field("endDate", endDate.toString())
+                .field("available", bookingService.isCarFree(carId, startDate, endDate))
+                .name("conflicts").beginArray();
+        for (Booking booking : bookingService.getOverlappingBookings(carId, startDate, endDate)) {
+            writeBooking(json, booking);
+        }
+        json.endArray().endObject().endObject();
+        return jsonResponse(200, json);
+    }
+    
+    private static LocalDate dateParam(HttpRequest request, String name) {
+        String value = request.getQueryParam(name);
+        try {
+            if (value != null) return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            // reported below like a missing date
+        }
+        throw new IllegalArgumentException(name + " must be a YYYY-MM-DD date");
+    }
+    
+    // Always paged, since the full list can run to millions: ?after=<id>&limit=<n>, with the
+    // cursor for the next page under "next" (null on the last page), and ?fields= projection
+    private static HttpResponse getBookingsResponse(HttpRequest request) {
+        List<BiConsumer<JsonWriter, Booking>> fields;
+        List<Booking> bookings;
+        int limit;
+        try {
+            fields = projection(request, BOOKING_FIELDS);
+            limit = intParam(request, "limit", DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE);
+            bookings = bookingService.getBookingsAfter(intParam(request, "after", 0, 0, Integer.MAX_VALUE), limit);
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
+        }
+        if (BinaryWire.accepts(request)) {
+            return binaryBookingsResponse(bookings, bookings.size() == limit);
+        }
         
-        return "HTTP/1.1 200 OK\r\n" +
-               "Content-Type: application/json\r\n" +
-               "Access-Control-Allow-Origin: *\r\n" +
-               "Connection: close\r\n\r\n" +
-               json.toString();
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).name("data").beginArray();
+        for (Booking booking : bookings) {
+            if (fields == null) {
+                writeBooking(json, booking);
+            } else {
+                writeProjected(json, booking, fields);
+            }
+        }
+        json.endArray();
+        writeNext(json, bookings.size() == limit ? bookings.get(bookings.size() - 1).getId() : -1);
+        json.endObject();
+        return jsonResponse(200, json).header("Vary", "Accept");
     }
     
-    private static String loginResponse() {
+    private static HttpResponse loginResponse() {
         // Simplified login response
-        String json = "{\n" +
-                     "  \"success\": true,\n" +
-                     "  \"message\": \"Login successful\",\n" +
-                     "  \"data\": {\n" +
-                     "    \"userId\": 1,\n" +
-                     "    \"username\": \"user\",\n" +
-                     "    \"role\": \"USER\",\n" +
-                     "    \"token\": \"jwt-token-here\"\n" +
-                     "  }\n" +
-                     "}";
-        
-        return "HTTP/1.1 200 OK\r\n" +
-               "Content-Type: application/json\r\n" +
-               "Access-Control-Allow-Origin: *\r\n" +
-               "Connection: close\r\n\r\n" +
-               json;
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).field("message", "Login successful").name("data").beginObject()
+                .field("userId", 1)
+                .field("username", "user")
+                .field("role", "USER")
+                .field("token", "jwt-token-here")
+                .endObject().endObject();
+        return jsonResponse(200, json);
     }
     
-    private static String createBookingResponse() {
+    private static HttpResponse createBookingResponse() {
         // Simplified booking creation
-        Booking booking = bookingService.createBooking(1, 1, LocalDate.now(), LocalDate.now().plusDays(3));
+        Booking booking;
+        try {
+            booking = bookingService.createBooking(1, 1, LocalDate.now(), LocalDate.now().plusDays(3));
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
+        } catch (BookingConflictException e) {
+            // Car 1 is already booked for those dates (or not offered), as in the batch
+            return messageResponse(409, false, e.getMessage());
+        }
+        
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", true).field("message", "Booking created successfully").name("data");
+        writeBooking(json, booking);
+        json.endObject();
+        return jsonResponse(200, json);
+    }
+    
+    // {"atomic": true, "bookings": [{"userId": 1, "carId": 2, "startDate": "2025-06-01",
+    // "endDate": "2025-06-04"}, ...]} books the whole batch in one pass. Each item gets a
+    // result, by index, that is either its booking or why it failed. With atomic (the
+    // default is false) one failure books nothing and the response is 409.
+    private static HttpResponse createBookingsResponse(HttpRequest request) {
+        boolean atomic;
+        List<BookingRequest> requests;
+        try {
+            Map<String, Object> body = JsonReader.parseObject(request.getBodyAsString());
+            Object atomicValue = body.getOrDefault("atomic", false);
+            if (!(atomicValue instanceof Boolean)) throw new IllegalArgumentException("atomic must be true or false");
+            atomic = (Boolean) atomicValue;
+            if (!(body.get("bookings") instanceof List<?> items) || items.isEmpty()) {
+                throw new IllegalArgumentException("bookings must be a non-empty array");
+            }
+            if (items.size() > MAX_BATCH_SIZE) {
+                return messageResponse(413, false, "At most " + MAX_BATCH_SIZE + " bookings per batch");
+            }
+            requests = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                requests.add(bookingRequest(items.get(i), i));
+            }
+        } catch (IllegalArgumentException e) {
+            return messageResponse(400, false, e.getMessage());
+        }
         
-        String json = "{\n" +
-                     "  \"success\": true,\n" +
-                     "  \"message\": \"Booking created successfully\",\n" +
-                     "  \"data\": {\n" +
-                     "    \"id\": " + booking.getId() + ",\n" +
-                     "    \"userId\": " + booking.getUserId() + ",\n" +
-                     "    \"carId\": " + booking.getCarId() + ",\n" +
-                     "    \"startDate\": \"" + booking.getStartDate() + "\",\n" +
-                     "    \"endDate\": \"" + booking.getEndDate() + "\",\n" +
-                     "    \"totalAmount\": " + booking.getTotalAmount() + ",\n" +
-                     "    \"status\": \"" + booking.getStatus() + "\"\n" +
-                     "  }\n" +
-                     "}";
+        int booked = bookingService.createBookings(requests, atomic);
         
-        return "HTTP/1.1 200 OK\r\n" +
-               "Content-Type: application/json\r\n" +
-               "Access-Control-Allow-Origin: *\r\n" +
-               "Connection: close\r\n\r\n" +
-               json;
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject()
+                .field("success", booked == requests.size())
+                .field("atomic", atomic)
+                .field("booked", booked)
+                .name("results").beginArray();
+        for (int i = 0; i < requests.size(); i++) {
+            BookingRequest item = requests.get(i);
+            json.beginObject().field("index", i);
+            if (item.booking != null) {
+                json.field("status", "BOOKED").name("booking");
+                writeBooking(json, item.booking);
+            } else {
+                json.field("status", "FAILED").field("message", item.error);
+            }
+            json.endObject();
+        }
+        json.endArray().endObject();
+        return jsonResponse(atomic && booked == 0 ? 409 : 200, json);
+    }
+    
+    private static BookingRequest bookingRequest(Object item, int index) {
+        if (!(item instanceof Map<?, ?> fields)) {
+            throw new IllegalArgumentException("bookings[" + index + "] must be an object");
+        }
+        try {
+            return new BookingRequest(
+                    intField(fields, "userId"),
+                    intField(fields, "carId"),
+                    LocalDate.parse(stringField(fields, "startDate")),
+                    LocalDate.parse(stringField(fields, "endDate")));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("bookings[" + index + "]: " + e.getMessage());
+        }
+    }
+    
+    private static int intField(Map<?, ?> fields, String name) {
+        if (fields.get(name) instanceof Long value && value > 0 && value <= Integer.MAX_VALUE) {
+            return value.intValue();
+        }
+        throw new IllegalArgumentException(name + " must be a positive integer");
+    }
+    
+    private static String stringField(Map<?, ?> fields, String name) {
+        if (fields.get(name) instanceof String value) return value;
+        throw new IllegalArgumentException(name + " must be a YYYY-MM-DD date");
+    }
+    
+    private static HttpResponse cancelBookingResponse(HttpRequest request) {
+        if (!bookingService.cancelBooking(request.getIntParam("id"))) {
+            return messageResponse(404, false, "Booking not found");
+        }
+        return messageResponse(200, true, "Booking cancelled");
+    }
+    
+    // Cars are copied in from CarService's pre-encoded fragments rather than re-encoded
+    private static void writeCar(JsonWriter json, Car car) {
+        json.rawValue(carService.getCarJson(car));
     }
     
-    private static String getHomeResponse() {
+    private static void writeCar(JsonWriter json, Car car, List<BiConsumer<JsonWriter, Car>> fields) {
+        if (fields == null) {
+            writeCar(json, car);
+        } else {
+            writeProjected(json, car, fields);
+        }
+    }
+    
+    private static <T> void writeProjected(JsonWriter json, T item, List<BiConsumer<JsonWriter, T>> fields) {
+        json.beginObject();
+        for (BiConsumer<JsonWriter, T> field : fields) {
+            field.accept(json, item);
+        }
+        json.endObject();
+    }
+    
+    // Accept: application/x-drivenow-bin gets the lists in BinaryWire's format, with the same
+    // paging; ?fields= does not apply, since every record has the full fixed layout
+    private static HttpResponse binaryCarsResponse(long version, List<Car> cars, boolean more, List<Integer> removed) {
+        BinaryWriter out = new BinaryWriter(BinaryWire.KIND_CARS, 16 + cars.size() * 24);
+        out.varint(version).varint(cars.size());
+        for (Car car : cars) {
+            out.id(car.getId())
+                    .string(car.getModel())
+                    .dictionaryString(car.getType())
+                    .dictionaryString(car.getLocation())
+                    .money(car.getRentPerDay())
+                    .flag(car.isAvailable());
+        }
+        out.signed(more ? cars.get(cars.size() - 1).getId() : -1).varint(removed.size());
+        for (int id : removed) {
+            out.varint(id);
+        }
+        return out.toResponse(200).header("Vary", "Accept").header("Access-Control-Allow-Origin", "*");
+    }
+    
+    private static HttpResponse binaryBookingsResponse(List<Booking> bookings, boolean more) {
+        BinaryWriter out = new BinaryWriter(BinaryWire.KIND_BOOKINGS, 16 + bookings.size() * 16);
+        out.varint(bookings.size());
+        for (Booking booking : bookings) {
+            out.id(booking.getId())
+                    .varint(booking.getUserId())
+                    .varint(booking.getCarId())
+                    .date(booking.getStartDate())
+                    .varint(booking.getEndDate().toEpochDay() - booking.getStartDate().toEpochDay())
+                    .money(booking.getTotalAmount())
+                    .dictionaryString(booking.getStatus());
+        }
+        out.signed(more ? bookings.get(bookings.size() - 1).getId() : -1);
+        return out.toResponse(200).header("Vary", "Accept").header("Access-Control-Allow-Origin", "*");
+    }
+    
+    // Cursor for the following page, or null when this one was the last
+    private static void writeNext(JsonWriter json, int lastId) {
+        json.name("next");
+        if (lastId < 0) {
+            json.value((String) null);
+        } else {
+            json.value(lastId);
+        }
+    }
+    
+    // Writers for the ?fields= names in the order given, or null without the parameter
+    // (every field)
+    private static <T> List<BiConsumer<JsonWriter, T>> projection(HttpRequest request,
+                                                                 Map<String, BiConsumer<JsonWriter, T>> available) {
+        String param = request.getQueryParam("fields");
+        if (param == null) return null;
+        List<BiConsumer<JsonWriter, T>> fields = new ArrayList<>();
+        for (String name : new LinkedHashSet<>(Arrays.asList(param.split(",")))) {
+            BiConsumer<JsonWriter, T> field = available.get(name.trim());
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field '" + name.trim() + "', expected some of "
+                        + new TreeSet<>(available.keySet()));
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+    
+    private static int intParam(HttpRequest request, String name, int defaultValue, int min, int max) {
+        String value = request.getQueryParam(name);
+        if (value == null) return defaultValue;
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min && parsed <= max) return parsed;
+        } catch (NumberFormatException e) {
+            // reported below like any other out-of-range value
+        }
+        throw new IllegalArgumentException(name + " must be a number from " + min + " to " + max);
+    }
+    
+    // Comma-separated ids, in order and without repeats; null when the parameter is absent
+    private static Set<Integer> idsParam(HttpRequest request, String name, int max) {
+        String value = request.getQueryParam(name);
+        if (value == null) return null;
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (String id : value.split(",")) {
+            if (id.isBlank()) continue;
+            try {
+                ids.add(Integer.parseInt(id.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " must be a comma-separated list of car ids");
+            }
+            if (ids.size() > max) throw new IllegalArgumentException("At most " + max + " " + name + " per request");
+        }
+        return ids;
+    }
+    
+    private static void writeBooking(JsonWriter json, Booking booking) {
+        json.beginObject()
+                .field("id", booking.getId())
+                .field("userId", booking.getUserId())
+                .field("carId", booking.getCarId())
+                .field("startDate", booking.getStartDate().toString())
+                .field("endDate", booking.getEndDate().toString())
+                .field("totalAmount", booking.getTotalAmount())
+                .field("status", booking.getStatus())
+                .endObject();
+    }
+    
+    private static HttpResponse getHomeResponse() {
         String html = "<!DOCTYPE html>" +
                      "<html><head><title>Car Rental API</title></head>" +
                      "<body style='font-family:Arial;padding:20px;background:#f5f5f5'>" +
@@ -225,29 +626,32 @@ public class RestAPI {
                      "<ul>" +
                      "<li><a href='/api/cars'>GET /api/cars</a> - Get all cars</li>" +
                      "<li><a href='/api/cars/available'>GET /api/cars/available</a> - Get available cars</li>" +
+                     "<li><a href='/api/cars/search?type=SUV'>GET /api/cars/search</a> - Filter cars</li>" +
+                     "<li><a href='/api/cars/1'>GET /api/cars/{id}</a> - Get car by id</li>" +
+                     "<li>GET /api/cars/{id}/availability?startDate=&amp;endDate= - Is the car free for those dates</li>" +
                      "<li><a href='/api/bookings'>GET /api/bookings</a> - Get all bookings</li>" +
                      "<li>POST /api/auth/login - User login</li>" +
                      "<li>POST /api/bookings - Create booking</li>" +
+                     "<li>POST /api/bookings/batch - Create many bookings</li>" +
+                     "<li>POST /api/bookings/{id}/cancel - Cancel booking</li>" +
                      "</ul>" +
                      "<p>Server running on port 8080</p>" +
                      "</body></html>";
         
-        return "HTTP/1.1 200 OK\r\n" +
-               "Content-Type: text/html\r\n" +
-               "Connection: close\r\n\r\n" +
-               html;
+        return HttpResponse.html(html);
     }
     
-    private static String get404Response() {
-        String json = "{\n" +
-                     "  \"success\": false,\n" +
-                     "  \"message\": \"Endpoint not found\"\n" +
-                     "}";
-        
-        return "HTTP/1.1 404 Not Found\r\n" +
-               "Content-Type: application/json\r\n" +
-               "Access-Control-Allow-Origin: *\r\n" +
-               "Connection: close\r\n\r\n" +
-               json;
+    private static HttpResponse get404Response() {
+        return messageResponse(404, false, "Endpoint not found");
+    }
+    
+    private static HttpResponse messageResponse(int status, boolean success, String message) {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().field("success", success).field("message", message).endObject();
+        return jsonResponse(status, json);
+    }
+    
+    private static HttpResponse jsonResponse(int status, JsonWriter json) {
+        return json.toResponse(status).header("Access-Control-Allow-Origin", "*");
     }
-}
\ No newline at end of file
+}
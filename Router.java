@@ -0,0 +1,159 @@
+import java.util.*;
+
+// Compiled route table shared by the servers. Routes are stored in a prefix trie keyed on
+// method and path segments, so dispatch cost depends on path depth, not on route count.
+//
+//   router.get("/api/cars/{id:int}", request -> ... request.getIntParam("id") ...)
+//
+// Segments may be literals, {name} (any segment) or {name:int} (digits only).
+// Literal segments win over parameters when both match. Each route carries the
+// WorkerPool lane its requests are queued in.
+class Router implements HttpHandler {
+    private static final String ANY_METHOD = "*";
+    private static final WorkerPool.Priority NORMAL = WorkerPool.Priority.NORMAL;
+
+    private final Map<String, Node> roots = new HashMap<>();
+    private HttpHandler notFound = request -> HttpResponse.json(404, "{\"success\": false, \"message\": \"Endpoint not found\"}");
+
+    public Router get(String pattern, HttpHandler handler) { return add("GET", pattern, NORMAL, handler); }
+    public Router post(String pattern, HttpHandler handler) { return add("POST", pattern, NORMAL, handler); }
+    public Router put(String pattern, HttpHandler handler) { return add("PUT", pattern, NORMAL, handler); }
+    public Router delete(String pattern, HttpHandler handler) { return add("DELETE", pattern, NORMAL, handler); }
+
+    public Router get(String pattern, WorkerPool.Priority priority, HttpHandler handler) { return add("GET", pattern, priority, handler); }
+    public Router post(String pattern, WorkerPool.Priority priority, HttpHandler handler) { return add("POST", pattern, priority, handler); }
+
+    // Matches the pattern for every method not registered explicitly
+    public Router all(String pattern, HttpHandler handler) { return add(ANY_METHOD, pattern, NORMAL, handler); }
+    public Router all(String pattern, WorkerPool.Priority priority, HttpHandler handler) { return add(ANY_METHOD, pattern, priority, handler); }
+
+    public Router notFound(HttpHandler handler) {
+        this.notFound = handler;
+        return this;
+    }
+
+    public Router add(String method, String pattern, WorkerPool.Priority priority, HttpHandler handler) {
+        Node node = roots.computeIfAbsent(method, m -> new Node());
+        List<String> paramNames = new ArrayList<>();
+        for (String segment : split(pattern)) {
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String spec = segment.substring(1, segment.length() - 1);
+                int colon = spec.indexOf(':');
+                String name = colon < 0 ? spec : spec.substring(0, colon);
+                boolean numeric = colon >= 0 && spec.substring(colon + 1).equals("int");
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.param.numeric = numeric;
+                } else if (node.param.numeric != numeric) {
+                    throw new IllegalArgumentException("Conflicting parameter types at " + pattern);
+                }
+                paramNames.add(name);
+                node = node.param;
+            } else {
+                node = node.literals.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        if (node.handler != null) {
+            throw new IllegalArgumentException("Duplicate route: " + method + " " + pattern);
+        }
+        node.handler = handler;
+        node.priority = priority;
+        node.paramNames = paramNames.toArray(new String[0]);
+        return this;
+    }
+
+    @Override
+    public WorkerPool.Priority priority(HttpRequest request) {
+        Node match = match(request);
+        return match == null ? NORMAL : match.priority;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        Node match = match(request);
+        if (match == null) return noRoute(request);
+        return match.handler.handle(request);
+    }
+
+    // The server asks for the priority before it runs the handler, so the route found the
+    // first time, with its path parameters already set, is kept on the request for the second
+    private Node match(HttpRequest request) {
+        if (request.getRoute() instanceof Match cached && cached.router == this) return cached.node;
+
+        List<String> segments = split(request.getPath());
+        String[] values = new String[segments.size()];
+        Node match = find(roots.get(request.getMethod()), segments, 0, values, 0);
+        if (match == null) match = find(roots.get(ANY_METHOD), segments, 0, values, 0);
+        if (match != null && match.paramNames.length > 0) {
+            Map<String, String> params = new HashMap<>();
+            for (int i = 0; i < match.paramNames.length; i++) {
+                params.put(match.paramNames[i], values[i]);
+            }
+            request.setPathParams(params);
+        }
+        request.setRoute(new Match(this, match));
+        return match;
+    }
+
+    // A path routed only under other methods gets 405 and the methods it takes, not 404
+    private HttpResponse noRoute(HttpRequest request) {
+        List<String> segments = split(request.getPath());
+        String[] values = new String[segments.size()];
+        StringJoiner allow = new StringJoiner(", ");
+        for (String method : new TreeSet<>(roots.keySet())) {
+            if (!method.equals(ANY_METHOD) && find(roots.get(method), segments, 0, values, 0) != null) {
+                allow.add(method);
+            }
+        }
+        if (allow.length() == 0) return notFound.handle(request);
+        return HttpResponse.json(405, "{\"success\": false, \"message\": \"Method not allowed\"}")
+                .header("Allow", allow.toString());
+    }
+
+    // Depth-first match with backtracking from a literal branch to the parameter branch
+    private Node find(Node node, List<String> segments, int index, String[] values, int valueCount) {
+        if (node == null) return null;
+        if (index == segments.size()) return node.handler != null ? node : null;
+
+        String segment = segments.get(index);
+        Node match = find(node.literals.get(segment), segments, index + 1, values, valueCount);
+        if (match != null) return match;
+
+        if (node.param != null && (!node.param.numeric || isDigits(segment))) {
+            values[valueCount] = segment;
+            return find(node.param, segments, index + 1, values, valueCount + 1);
+        }
+        return null;
+    }
+
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<>(8);
+        int start = 0;
+        while (start < path.length()) {
+            int slash = path.indexOf('/', start);
+            int end = slash < 0 ? path.length() : slash;
+            if (end > start) segments.add(path.substring(start, end));
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty() || s.length() > 9) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    private record Match(Router router, Node node) {}
+
+    private static class Node {
+        final Map<String, Node> literals = new HashMap<>();
+        Node param;
+        boolean numeric;
+        HttpHandler handler;
+        WorkerPool.Priority priority;
+        String[] paramNames;
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves files from one directory, e.g. router.all("/assets/{file}", new StaticFileHandler(dir, "file")).
+// Bodies are never copied through the heap: the server transfers them straight from the
+// open FileChannel to the socket (sendfile). Each file gets a strong ETag from its content,
+// so browsers revalidate with If-None-Match and get a bodiless 304. Single byte ranges
+// are honoured for resumed downloads.
+class StaticFileHandler implements HttpHandler {
+    // Asset names are not content-hashed, so cache for a week and revalidate by ETag after that
+    private static final String CACHE_CONTROL = "public, max-age=604800";
+    // How often a cached entry checks the file on disk for changes
+    private static final long RECHECK_MILLIS = 1000;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "jpg", "image/jpeg",
+            "jpeg", "image/jpeg",
+            "png", "image/png",
+            "gif", "image/gif",
+            "webp", "image/webp",
+            "svg", "image/svg+xml",
+            "ico", "image/x-icon",
+            "css", "text/css; charset=UTF-8");
+
+    private final Path root;
+    private final String param;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    public StaticFileHandler(Path root, String param) {
+        this.root = root.toAbsolutePath().normalize();
+        this.param = param;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        boolean head = request.getMethod().equals("HEAD");
+        if (!head && !request.getMethod().equals("GET")) {
+            return HttpResponse.json(405, "{\"success\": false, \"message\": \"Method not allowed\"}")
+                    .header("Allow", "GET, HEAD");
+        }
+
+        Asset asset;
+        try {
+            asset = lookup(request.getPathParam(param));
+        } catch (IOException e) {
+            asset = null;
+        }
+        if (asset == null) {
+            return HttpResponse.json(404, "{\"success\": false, \"message\": \"File not found\"}");
+        }
+
+        if (notModified(request, asset)) {
+            return withValidators(new HttpResponse(304, asset.contentType, new byte[0]), asset);
+        }
+
+        long start = 0;
+        long count = asset.size;
+        int status = 200;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(asset.etag))) {
+            long[] bounds = parseRange(range, asset.size);
+            if (bounds == null) {
+                return withValidators(new HttpResponse(416, asset.contentType, new byte[0]), asset)
+                        .header("Content-Range", "bytes */" + asset.size);
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                status = 206;
+            }
+        }
+
+        HttpResponse response = HttpResponse.file(status, asset.contentType, asset.channel, start, count);
+        withValidators(response, asset).header("Accept-Ranges", "bytes");
+        if (status == 206) {
+            response.header("Content-Range", "bytes " + start + "-" + (start + count - 1) + "/" + asset.size);
+        }
+        return head ? response.headOnly() : response;
+    }
+
+    // If-None-Match takes precedence; If-Modified-Since only applies without it
+    private static boolean notModified(HttpRequest request, Asset asset) {
+        if (request.getIfNoneMatch() != null) {
+            return request.ifNoneMatch(asset.etag);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toEpochSecond();
+                return asset.lastModifiedSeconds <= since;
+            } catch (DateTimeException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Returns {first, last} for one satisfiable range, an empty array when the header should
+    // be ignored (multiple or malformed ranges: serve the whole file), or null if unsatisfiable
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return new long[0];
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[0];
+        try {
+            long first, last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix == 0) return null;
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                if (first >= size) return null;
+                last = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+                if (last < first) return new long[0];
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static HttpResponse withValidators(HttpResponse response, Asset asset) {
+        return response.header("ETag", asset.etag)
+                .header("Last-Modified", HTTP_DATE.format(
+                        Instant.ofEpochSecond(asset.lastModifiedSeconds).atZone(ZoneOffset.UTC)))
+                .header("Cache-Control", CACHE_CONTROL);
+    }
+
+    private Asset lookup(String name) throws IOException {
+        if (name == null || name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains("\\")) {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        String contentType = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+        if (contentType == null) return null;
+
+        Asset asset = assets.get(name);
+        long now = System.currentTimeMillis();
+        if (asset != null && now - asset.checkedAt < RECHECK_MILLIS) return asset;
+
+        Path file = root.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            assets.remove(name);
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (asset != null && asset.size == size && asset.lastModifiedMillis == lastModified) {
+            asset.checkedAt = now;
+            return asset;
+        }
+
+        // The previous channel may still be mid-transfer on another connection, so it is
+        // not closed here; its descriptor is released once it becomes unreachable
+        Asset loaded = new Asset(FileChannel.open(file, StandardOpenOption.READ), contentType, size, lastModified);
+        loaded.checkedAt = now;
+        assets.put(name, loaded);
+        return loaded;
+    }
+
+    private static class Asset {
+        final FileChannel channel;
+        final String contentType;
+        final long size;
+        final long lastModifiedMillis;
+        final long lastModifiedSeconds;
+        final String etag;
+        volatile long checkedAt;
+
+        Asset(FileChannel channel, String contentType, long size, long lastModifiedMillis) throws IOException {
+            this.channel = channel;
+            this.contentType = contentType;
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.lastModifiedSeconds = lastModifiedMillis / 1000;
+            this.etag = "\"" + digest(channel, size) + "\"";
+        }
+
+        private static String digest(FileChannel channel, long size) throws IOException {
+            try {
+                MessageDigest sha = MessageDigest.getInstance("SHA-256");
+                ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+                for (long position = 0; position < size; ) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0) break;
+                    position += read;
+                    buffer.flip();
+                    sha.update(buffer);
+                    buffer.clear();
+                }
+                return HexFormat.of().formatHex(sha.digest(), 0, 8);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
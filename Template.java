@@ -0,0 +1,314 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.*;
+
+// HTML template compiled once into static UTF-8 chunks and typed slots. Rendering
+// appends the chunks and slot values straight into an HtmlBuffer: no format-string
+// parsing, no boxing of numbers and no intermediate page String.
+//
+//   Template<Car> row = Template.<Car>define("<td>{{model}}</td><td>₹{{rent}}</td>")
+//           .text("model", car -> car.model)
+//           .amount("rent", car -> car.rentPerDay)
+//           .compile();
+//
+// {{name}} marks a slot; every slot in the source must be bound and every binding used.
+class Template<T> {
+    // Streamed bodies are handed to the server in pieces of about this size
+    static final int STREAM_CHUNK_SIZE = 16 * 1024;
+
+    private final byte[][] chunks;
+    private final Slot<T>[] slots;
+
+    private Template(byte[][] chunks, Slot<T>[] slots) {
+        this.chunks = chunks;
+        this.slots = slots;
+    }
+
+    public static <T> Builder<T> define(String source) {
+        return new Builder<>(source);
+    }
+
+    public void render(T model, HtmlBuffer out) {
+        for (int i = 0; i < slots.length; i++) {
+            out.write(chunks[i]);
+            slots[i].write(model, out);
+        }
+        out.write(chunks[slots.length]);
+    }
+
+    public byte[] render(T model) {
+        HtmlBuffer out = new HtmlBuffer(8 * 1024);
+        render(model, out);
+        return out.toByteArray();
+    }
+
+    // Renders incrementally as the server pulls: the markup before the first each slot goes
+    // out on its own, then rows follow a chunk at a time, so neither the page nor the row
+    // list is ever held in memory
+    public ChunkSource stream(T model) {
+        return new ChunkSource() {
+            private int next;
+            private Iterator<?> rows;
+
+            @Override
+            public boolean fill(HtmlBuffer out) {
+                while (out.size() < STREAM_CHUNK_SIZE) {
+                    if (rows != null) {
+                        if (rows.hasNext()) {
+                            ((EachSlot<T, ?>) slots[next]).renderItem(rows.next(), out);
+                            continue;
+                        }
+                        rows = null;
+                        next++;
+                    }
+                    if (next > slots.length) return false;
+                    out.write(chunks[next]);
+                    if (next == slots.length) {
+                        next++;
+                        return false;
+                    }
+                    if (slots[next] instanceof EachSlot<T, ?> each) {
+                        rows = each.items(model);
+                        return true;
+                    }
+                    slots[next++].write(model, out);
+                }
+                return true;
+            }
+        };
+    }
+
+    interface Slot<T> {
+        void write(T model, HtmlBuffer out);
+    }
+
+    private static class EachSlot<T, E> implements Slot<T> {
+        private final Function<T, ? extends Iterable<E>> items;
+        private final Template<E> template;
+
+        EachSlot(Function<T, ? extends Iterable<E>> items, Template<E> template) {
+            this.items = items;
+            this.template = template;
+        }
+
+        @Override
+        public void write(T model, HtmlBuffer out) {
+            for (E item : items.apply(model)) {
+                template.render(item, out);
+            }
+        }
+
+        Iterator<E> items(T model) {
+            return items.apply(model).iterator();
+        }
+
+        @SuppressWarnings("unchecked")
+        void renderItem(Object item, HtmlBuffer out) {
+            template.render((E) item, out);
+        }
+    }
+
+    static class Builder<T> {
+        private final String source;
+        private final Map<String, Slot<T>> bindings = new HashMap<>();
+
+        Builder(String source) {
+            this.source = source;
+        }
+
+        // HTML-escaped text, safe in element content and quoted attributes
+        public Builder<T> text(String name, Function<T, String> value) {
+            return bind(name, (model, out) -> out.writeEscaped(value.apply(model)));
+        }
+
+        // Contents of a single-quoted JavaScript string inside an HTML attribute
+        public Builder<T> js(String name, Function<T, String> value) {
+            return bind(name, (model, out) -> out.writeJsString(value.apply(model)));
+        }
+
+        public Builder<T> number(String name, ToLongFunction<T> value) {
+            return bind(name, (model, out) -> out.writeLong(value.applyAsLong(model)));
+        }
+
+        // Rounded to whole units with thousands separators, like "%,.0f"
+        public Builder<T> amount(String name, ToDoubleFunction<T> value) {
+            return bind(name, (model, out) -> out.writeAmount(value.applyAsDouble(model)));
+        }
+
+        // Renders the nested template once per item
+        public <E> Builder<T> each(String name, Function<T, ? extends Iterable<E>> items, Template<E> template) {
+            return bind(name, new EachSlot<>(items, template));
+        }
+
+        public Builder<T> bind(String name, Slot<T> slot) {
+            if (bindings.put(name, slot) != null) {
+                throw new IllegalArgumentException("Slot bound twice: " + name);
+            }
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Template<T> compile() {
+            List<byte[]> chunks = new ArrayList<>();
+            List<Slot<T>> slots = new ArrayList<>();
+            Set<String> used = new HashSet<>();
+
+            int start = 0;
+            while (true) {
+                int open = source.indexOf("{{", start);
+                if (open < 0) break;
+                int close = source.indexOf("}}", open + 2);
+                if (close < 0) throw new IllegalArgumentException("Unclosed slot at offset " + open);
+
+                String name = source.substring(open + 2, close).trim();
+                Slot<T> slot = bindings.get(name);
+                if (slot == null) throw new IllegalArgumentException("Unbound slot: " + name);
+                chunks.add(source.substring(start, open).getBytes(StandardCharsets.UTF_8));
+                slots.add(slot);
+                used.add(name);
+                start = close + 2;
+            }
+            chunks.add(source.substring(start).getBytes(StandardCharsets.UTF_8));
+
+            if (!used.containsAll(bindings.keySet())) {
+                Set<String> unused = new TreeSet<>(bindings.keySet());
+                unused.removeAll(used);
+                throw new IllegalArgumentException("Slots not in template: " + unused);
+            }
+            @SuppressWarnings("unchecked")
+            Slot<T>[] typed = (Slot<T>[]) slots.toArray(new Slot<?>[0]);
+            return new Template<>(chunks.toArray(new byte[0][]), typed);
+        }
+    }
+}
+
+// Growable UTF-8 output for templates, with the escaping each slot type needs
+class HtmlBuffer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] bytes;
+    private int count;
+
+    public HtmlBuffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void write(byte[] chunk) {
+        write(chunk, 0, chunk.length);
+    }
+
+    public void write(byte[] chunk, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(chunk, offset, bytes, count, length);
+        count += length;
+    }
+
+    public void writeEscaped(String s) {
+        if (s == null) return;
+        ensureCapacity(s.length() * 3);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': writeAscii("&amp;"); break;
+                case '<': writeAscii("&lt;"); break;
+                case '>': writeAscii("&gt;"); break;
+                case '"': writeAscii("&quot;"); break;
+                case '\'': writeAscii("&#39;"); break;
+                default: i = writeChar(s, i);
+            }
+        }
+    }
+
+    // The browser decodes entities before running an attribute's script, so quotes and
+    // markup characters become \xNN escapes that mean nothing to either parser
+    public void writeJsString(String s) {
+        if (s == null) return;
+        ensureCapacity(s.length() * 4);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c == '\\' || c == '\'' || c == '"' || c == '<' || c == '>' || c == '&') {
+                ensureCapacity(4);
+                bytes[count++] = '\\';
+                bytes[count++] = 'x';
+                bytes[count++] = HEX[c >> 4];
+                bytes[count++] = HEX[c & 0xF];
+            } else {
+                i = writeChar(s, i);
+            }
+        }
+    }
+
+    public void writeLong(long value) {
+        writeAscii(Long.toString(value));
+    }
+
+    public void writeAmount(double value) {
+        long rounded = Math.round(Math.abs(value));
+        if (value < 0 && rounded != 0) writeAscii("-");
+        String digits = Long.toString(rounded);
+        ensureCapacity(digits.length() * 2);
+        for (int i = 0; i < digits.length(); i++) {
+            if (i > 0 && (digits.length() - i) % 3 == 0) bytes[count++] = ',';
+            bytes[count++] = (byte) digits.charAt(i);
+        }
+    }
+
+    public int size() { return count; }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, count);
+    }
+
+    // Wraps the current contents without copying; valid until the next write or reset
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, count);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    private void writeAscii(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            bytes[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    // UTF-8 encodes the char at i (and its low surrogate); returns the last index consumed
+    private int writeChar(String s, int i) {
+        ensureCapacity(4);
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            bytes[count++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[count++] = (byte) (0xC0 | c >> 6);
+            bytes[count++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            bytes[count++] = (byte) (0xF0 | cp >> 18);
+            bytes[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+            bytes[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+            bytes[count++] = (byte) (0x80 | cp & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+            bytes[count++] = '?';
+        } else {
+            bytes[count++] = (byte) (0xE0 | c >> 12);
+            bytes[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+            bytes[count++] = (byte) (0x80 | c & 0x3F);
+        }
+        return i;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+// Blocking HTTP server that runs every accepted connection on its own virtual thread.
+// Handlers may block on socket reads or JDBC calls without tying up a platform thread.
+// Needs JDK 21 (Thread.ofVirtual), so IntegratedServer does too; the other programs build on 17.
+public class VirtualThreadServer {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final int port;
+    private final HttpHandler handler;
+    private final AdaptiveLimit limit;
+
+    public VirtualThreadServer(int port, AdaptiveLimit limit, HttpHandler handler) {
+        this.port = port;
+        this.handler = handler;
+        this.limit = limit;
+    }
+
+    // Reports virtual threads that stay pinned to their carrier (synchronized blocks,
+    // native frames) for longer than the threshold. Call before start().
+    public static void enablePinningDiagnostics(Duration threshold) {
+        RecordingStream stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", event -> {
+            StringBuilder trace = new StringBuilder();
+            trace.append("⚠️ Virtual thread pinned for ").append(event.getDuration().toMillis()).append(" ms");
+            if (event.getStackTrace() != null) {
+                for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                    trace.append("\n    at ").append(frame.getMethod().getType().getName())
+                         .append('.').append(frame.getMethod().getName())
+                         .append(':').append(frame.getLineNumber());
+                }
+            }
+            System.err.println(trace);
+        });
+        stream.startAsync();
+    }
+
+    // Runs the accept loop on the calling thread
+    public void start() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 1024)) {
+            while (true) {
+                Socket client = server.accept();
+                Thread.ofVirtual().name("conn-", 0).start(() -> handleConnection(client));
+            }
+        }
+    }
+
+    // Serves requests off one connection until the client closes it, goes idle
+    // or reaches the per-connection request limit
+    private void handleConnection(Socket client) {
+        try (client) {
+            client.setSoTimeout(EventLoopServer.IDLE_TIMEOUT_SECONDS * 1000);
+            client.setTcpNoDelay(true);
+            RequestReader reader = new RequestReader(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+
+            for (int served = 1; ; served++) {
+                HttpRequest request = reader.next();
+                if (request == null) return;
+
+                boolean keepAlive = request.isKeepAlive() && served < EventLoopServer.MAX_REQUESTS_PER_CONNECTION;
+                HttpResponse response = handleWithDeadline(request);
+                // HTTP/1.0 has no chunked encoding, so a streamed body there ends with the connection
+                boolean chunked = request.isHttp11();
+                if (response.isStreamed() && !chunked) keepAlive = false;
+
+                out.write(response.headBytes(keepAlive, EventLoopServer.IDLE_TIMEOUT_SECONDS, chunked));
+                out.write(response.getBody());
+                if (response.getFile() != null) {
+                    writeFile(response, out);
+                }
+                if (response.getStream() != null) {
+                    writeStream(response.getStream(), chunked, out);
+                }
+                out.flush();
+                if (!keepAlive) return;
+            }
+        } catch (SocketTimeoutException e) {
+            // Idle or slow client; just drop the connection
+        } catch (IOException e) {
+            // Client went away or sent a request we cannot parse
+        }
+    }
+
+    // Stream sockets have no channel to transfer into, so file bodies are copied through
+    // a small buffer here; the event-loop server sends them zero-copy
+    private static void writeFile(HttpResponse response, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = response.getFilePosition();
+        long end = position + response.getFileCount();
+        while (position < end) {
+            long sent = response.getFile().transferTo(position, end - position, target);
+            if (sent <= 0) throw new EOFException("File truncated while sending");
+            position += sent;
+        }
+    }
+
+    // Flushes every piece as soon as it is produced so the client sees the page building up
+    private static void writeStream(ChunkSource stream, boolean chunked, OutputStream out) throws IOException {
+        HtmlBuffer buffer = new HtmlBuffer(Template.STREAM_CHUNK_SIZE + 4 * 1024);
+        boolean more = true;
+        while (more) {
+            buffer.reset();
+            more = stream.fill(buffer);
+            if (buffer.size() > 0) {
+                if (chunked) {
+                    out.write((Integer.toHexString(buffer.size()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    buffer.writeTo(out);
+                    out.write(CRLF);
+                } else {
+                    buffer.writeTo(out);
+                }
+                out.flush();
+            }
+        }
+        if (chunked) out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    // Each request's handler runs on a virtual thread of its own. Past the deadline the
+    // handler is interrupted and the 503 goes out at once: a handler that ignores the
+    // interrupt (blocking JDBC, say) finishes in the background without holding the reply.
+    // It keeps its slot in the limit until it does, so abandoned handlers still count
+    // against the limit instead of piling up beyond it behind a slow backend.
+    private HttpResponse handleWithDeadline(HttpRequest request) {
+        if (!limit.tryAcquire()) {
+            return HttpResponse.serviceUnavailable("Server busy, please retry");
+        }
+        long started = System.nanoTime();
+        // Whichever side gets here first decides how the slot goes back: a handler that
+        // finishes in time releases it normally, one abandoned at the deadline as dropped
+        AtomicBoolean settled = new AtomicBoolean();
+        FutureTask<HttpResponse> result = new FutureTask<>(() -> handler.handle(request));
+        Thread.ofVirtual().name("request-handler").start(() -> {
+            try {
+                result.run();
+            } finally {
+                if (settled.compareAndSet(false, true)) {
+                    limit.release(System.nanoTime() - started);
+                } else {
+                    limit.releaseDropped();
+                }
+            }
+        });
+        try {
+            try {
+                return result.get(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (settled.compareAndSet(false, true)) {
+                    result.cancel(true);
+                    return HttpResponse.serviceUnavailable("Request timed out");
+                }
+                // The handler finished just as the deadline passed; its answer stands
+                return result.get();
+            }
+        } catch (ExecutionException e) {
+            // A handler bug, not congestion: the limit sees it as a normal completion
+            e.getCause().printStackTrace();
+            return HttpResponse.json(500, "{\"success\": false, \"message\": \"Internal server error\"}");
+        } catch (InterruptedException e) {
+            if (settled.compareAndSet(false, true)) result.cancel(true);
+            Thread.currentThread().interrupt();
+            return HttpResponse.serviceUnavailable("Server shutting down");
+        }
+    }
+
+    // Per-connection read buffer; bytes past the current request stay buffered for the next one
+    private static class RequestReader {
+        private final InputStream in;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        private final HttpRequestParser parser = new HttpRequestParser();
+
+        RequestReader(InputStream in) {
+            this.in = in;
+            buffer.flip();
+        }
+
+        // Blocks until one complete request has been parsed; returns null once the client closes
+        HttpRequest next() throws IOException {
+            while (true) {
+                HttpRequest request = parser.parse(buffer);
+                if (request != null) return request;
+
+                int read = in.read(buffer.array(), 0, buffer.capacity());
+                if (read < 0) return null;
+                buffer.position(0).limit(read);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+
+// Fixed set of worker threads fed from bounded per-priority queues. Workers always drain
+// the highest non-empty lane first, so under overload browsing traffic queues (and is
+// shed) before booking traffic does. Submissions to a full lane are rejected immediately
+// so the caller can answer 503 instead of piling up threads or memory. An optional
+// AdaptiveLimit caps queued plus running tasks at what the workers currently sustain;
+// HIGH tasks are counted against it but never refused by it.
+class WorkerPool {
+    enum Priority { HIGH, NORMAL, LOW }
+
+    private final ArrayDeque<Runnable>[] lanes;
+    private final int laneCapacity;
+    private final AdaptiveLimit limit;
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int queued;
+
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public WorkerPool(String name, int threads, int laneCapacity) {
+        this(name, threads, laneCapacity, null);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public WorkerPool(String name, int threads, int laneCapacity, AdaptiveLimit limit) {
+        this.laneCapacity = laneCapacity;
+        this.limit = limit;
+        this.lanes = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>(laneCapacity);
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::runWorker, name + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    // Queues the task in its lane; returns false without queuing if the lane is full
+    // or the adaptive limit is reached
+    public boolean trySubmit(Priority priority, Runnable task) {
+        if (limit != null) {
+            if (priority == Priority.HIGH) {
+                limit.acquire();
+            } else if (!limit.tryAcquire()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            task = timed(task);
+        }
+
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> lane = lanes[priority.ordinal()];
+            if (lane.size() >= laneCapacity) {
+                rejected.incrementAndGet();
+                if (limit != null) limit.release(0);
+                return false;
+            }
+            lane.addLast(task);
+            queued++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Samples time from submission to completion, so queueing shows up as latency
+    private Runnable timed(Runnable task) {
+        long submitted = System.nanoTime();
+        return () -> {
+            boolean succeeded = false;
+            try {
+                task.run();
+                succeeded = true;
+            } finally {
+                if (succeeded) {
+                    limit.release(System.nanoTime() - submitted);
+                } else {
+                    limit.releaseDropped();
+                }
+            }
+        };
+    }
+
+    private void runWorker() {
+        while (true) {
+            Runnable task;
+            lock.lock();
+            try {
+                while (queued == 0) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                task = nextTask();
+            } finally {
+                lock.unlock();
+            }
+
+            active.incrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        }
+    }
+
+    private Runnable nextTask() {
+        for (ArrayDeque<Runnable> lane : lanes) {
+            if (!lane.isEmpty()) {
+                queued--;
+                return lane.pollFirst();
+            }
+        }
+        throw new IllegalStateException("Queue count out of sync");
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getActive() { return active.get(); }
+    public long getCompleted() { return completed.get(); }
+    public long getRejected() { return rejected.get(); }
+    public AdaptiveLimit getLimit() { return limit; }
+}